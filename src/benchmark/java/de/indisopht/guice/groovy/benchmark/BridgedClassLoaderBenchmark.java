@@ -0,0 +1,68 @@
+package de.indisopht.guice.groovy.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import de.indisopht.guice.groovy.internal.BridgedClassLoader;
+
+/**
+ * measures {@link BridgedClassLoader#loadClass(String)} of found and
+ * missing classes with several threads looking up classes concurrently
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class BridgedClassLoaderBenchmark {
+
+    private static final String[] CLASS_NAMES = {
+        "java.lang.String", "java.lang.Integer", "java.util.ArrayList", "java.util.HashMap",
+        "java.util.LinkedList", "java.util.TreeMap", "java.io.File", "java.net.URL",
+        "java.util.concurrent.ConcurrentHashMap", "java.lang.StringBuilder", "java.math.BigDecimal",
+        "groovy.lang.GroovyObject", "groovy.lang.MetaClass", "com.google.inject.Injector",
+        "de.indisopht.guice.groovy.GroovyGuice", "de.indisopht.guice.groovy.GroovyProvider"
+    };
+
+    private BridgedClassLoader loader;
+
+    /**
+     * position of a thread in {@link BridgedClassLoaderBenchmark#CLASS_NAMES}
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position = 0;
+
+        String next() {
+            position = (position + 1) % CLASS_NAMES.length;
+            return CLASS_NAMES[position];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        loader = new BridgedClassLoader(BridgedClassLoaderBenchmark.class.getClassLoader());
+    }
+
+    @Benchmark
+    public Class<?> loadExisting(Cursor cursor) throws ClassNotFoundException {
+        return loader.loadClass(cursor.next());
+    }
+
+    @Benchmark
+    public Class<?> loadMissing(Cursor cursor) {
+        try {
+            return loader.loadClass(cursor.next() + "BeanInfo");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.indisopht.guice.groovy.benchmark;
+
+import groovy.lang.GroovyCodeSource;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.indisopht.guice.groovy.internal.GroovyGuiceClassLoader;
+
+/**
+ * measures compiling a Groovy class by {@link GroovyGuiceClassLoader}.
+ * Cold compilation is the first compilation in a new JVM, warm
+ * compilation happens after the compiler has been warmed up. Cached
+ * parsing returns the class compiled before.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompilationBenchmark {
+
+    private static final String SOURCE = "import de.indisopht.guice.groovy.utest.TestInterface; " +
+                                         "class TestClass implements TestInterface {" +
+                                             "String getValue() {" +
+                                                 "'fromString'" +
+                                             "}" +
+                                         "}";
+
+    private GroovyGuiceClassLoader cachingLoader;
+
+    @Setup
+    public void setUp() {
+        cachingLoader = createLoader();
+    }
+
+    private static GroovyGuiceClassLoader createLoader() {
+        return new GroovyGuiceClassLoader(CompilationBenchmark.class.getClassLoader(), new CompilerConfiguration());
+    }
+
+    private static GroovyCodeSource createCodeSource() {
+        return new GroovyCodeSource(SOURCE, "TestClass.groovy", "/groovy/script");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public Class<?> coldCompilation() {
+        return createLoader().parseClass(createCodeSource(), false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public Class<?> warmCompilation() {
+        return createLoader().parseClass(createCodeSource(), false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Class<?> cachedParsing() {
+        return cachingLoader.parseClass(createCodeSource(), true);
+    }
+}
@@ -0,0 +1,69 @@
+package de.indisopht.guice.groovy.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
+import com.google.inject.binder.ScopedBindingBuilder;
+
+import de.indisopht.guice.groovy.GroovyGuice;
+import de.indisopht.guice.groovy.GroovyGuice.GroovyModuleBuilderInstance;
+import de.indisopht.guice.groovy.GroovyProvider;
+import de.indisopht.guice.groovy.utest.TestInterface;
+
+/**
+ * measures {@link GroovyProvider#get()} for TestClass.groovy per scope,
+ * with and without recompilation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GroovyProviderBenchmark {
+
+    @Param({"unscoped", "singleton"})
+    public String scope;
+
+    @Param({"false", "true"})
+    public boolean recompile;
+
+    private Provider<TestInterface> provider;
+
+    @Setup
+    public void setUp() {
+        AbstractModule groovyModule = new AbstractModule() {
+            @Override
+            protected void configure() {
+                ScopedBindingBuilder binding = bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("TestClass", recompile) {});
+                if ("singleton".equals(scope)) {
+                    binding.in(Scopes.SINGLETON);
+                }
+            }
+        };
+        GroovyModuleBuilderInstance groovyGuiceModule = GroovyGuice
+            .createModule()
+            .addClasspath(new File(GroovyProviderBenchmark.class.getResource("/TestClass.groovy").getPath()).getParent());
+        if (recompile) {
+            groovyGuiceModule.enableRecompilation();
+        } else {
+            groovyGuiceModule.disableRecompilation();
+        }
+        provider = Guice.createInjector(groovyModule, groovyGuiceModule.build()).getProvider(TestInterface.class);
+    }
+
+    @Benchmark
+    public TestInterface get() {
+        return provider.get();
+    }
+}
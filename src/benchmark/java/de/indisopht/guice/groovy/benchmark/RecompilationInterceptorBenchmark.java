@@ -0,0 +1,70 @@
+package de.indisopht.guice.groovy.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.indisopht.guice.groovy.internal.interceptors.RecompilationInterceptor;
+import de.indisopht.guice.groovy.internal.interceptors.Recompiler;
+import de.indisopht.guice.groovy.internal.interceptors.RecompilingProxyFactory;
+import de.indisopht.guice.groovy.utest.performance.MyClass;
+import de.indisopht.guice.groovy.utest.performance.MyClassImpl;
+
+/**
+ * compares calls through the proxies delegating to a
+ * {@link RecompilationInterceptor} with direct calls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecompilationInterceptorBenchmark {
+
+    private MyClass direct;
+    private MyClass cglibProxy;
+    private MyClass jdkProxy;
+    private MyClass dispatchingProxy;
+
+    @Setup
+    public void setUp() {
+        RecompilingProxyFactory proxyFactory = new RecompilingProxyFactory();
+        direct = new MyClassImpl();
+        cglibProxy = proxyFactory.createProxy(MyClassImpl.class, createInterceptor());
+        jdkProxy = proxyFactory.createProxy(MyClass.class, createInterceptor());
+        dispatchingProxy = proxyFactory.createDispatchingProxy(MyClass.class, createInterceptor());
+    }
+
+    private RecompilationInterceptor createInterceptor() {
+        return new RecompilationInterceptor(new MyClassImpl(), new Recompiler() {
+            @Override
+            public Object recompile(Object delegate) {
+                return null;
+            }
+        });
+    }
+
+    @Benchmark
+    public void direct() {
+        direct.doSomething();
+    }
+
+    @Benchmark
+    public void cglibProxy() {
+        cglibProxy.doSomething();
+    }
+
+    @Benchmark
+    public void jdkProxy() {
+        jdkProxy.doSomething();
+    }
+
+    @Benchmark
+    public void dispatchingProxy() {
+        dispatchingProxy.doSomething();
+    }
+}
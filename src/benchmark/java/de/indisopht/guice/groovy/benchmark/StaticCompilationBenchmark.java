@@ -0,0 +1,59 @@
+package de.indisopht.guice.groovy.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+
+import de.indisopht.guice.groovy.GroovyGuice;
+import de.indisopht.guice.groovy.GroovyGuice.GroovyModuleBuilderInstance;
+import de.indisopht.guice.groovy.GroovyProvider;
+import de.indisopht.guice.groovy.utest.TestInterface;
+
+/**
+ * measures calls of ComputingTestClass.groovy compiled dynamically
+ * and statically
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StaticCompilationBenchmark {
+
+    @Param({"dynamic", "static"})
+    public String compilation;
+
+    private TestInterface instance;
+
+    @Setup
+    public void setUp() {
+        AbstractModule groovyModule = new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("ComputingTestClass") {});
+            }
+        };
+        GroovyModuleBuilderInstance groovyGuiceModule = GroovyGuice
+            .createModule()
+            .addClasspath(new File(StaticCompilationBenchmark.class.getResource("/ComputingTestClass.groovy").getPath()).getParent())
+            .disableRecompilation();
+        if ("static".equals(compilation)) {
+            groovyGuiceModule.compileStatically("ComputingTestClass");
+        }
+        instance = Guice.createInjector(groovyModule, groovyGuiceModule.build()).getInstance(TestInterface.class);
+    }
+
+    @Benchmark
+    public String getValue() {
+        return instance.getValue();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import de.indisopht.guice.groovy.internal.Tracer.Span;
+
+/**
+ * Definition of a compiled or cached Groovy class
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+@Name("de.indisopht.guice.groovy.ClassDefinition")
+@Label("Groovy Class Definition")
+@Category("groovy-guice")
+@Description("Definition of a compiled or cached Groovy class")
+@StackTrace(false)
+class ClassDefinitionEvent extends Event implements Span {
+
+    @Label("Class")
+    String className;
+
+    @Label("Cached")
+    @Description("true, if the bytecode has been taken from a cache")
+    boolean cached;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    /**
+     * @see de.indisopht.guice.groovy.internal.Tracer.Span#finish(boolean)
+     */
+    @Override
+    public void finish(boolean success) {
+        end();
+        if (shouldCommit()) {
+            succeeded = success;
+            commit();
+        }
+    }
+}
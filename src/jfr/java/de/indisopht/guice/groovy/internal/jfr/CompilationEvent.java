@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import de.indisopht.guice.groovy.internal.Tracer.Span;
+
+/**
+ * Compilation of a Groovy source
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+@Name("de.indisopht.guice.groovy.Compilation")
+@Label("Groovy Compilation")
+@Category("groovy-guice")
+@Description("Compilation of a Groovy source")
+@StackTrace(false)
+class CompilationEvent extends Event implements Span {
+
+    @Label("Source")
+    String sourceName;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    /**
+     * @see de.indisopht.guice.groovy.internal.Tracer.Span#finish(boolean)
+     */
+    @Override
+    public void finish(boolean success) {
+        end();
+        if (shouldCommit()) {
+            succeeded = success;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.jfr;
+
+import de.indisopht.guice.groovy.internal.Tracer;
+
+/**
+ * {@link Tracer} recording JFR events. Events are only created, if they
+ * are enabled in the current recording.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class JfrTracer extends Tracer {
+
+    /**
+     * @see de.indisopht.guice.groovy.internal.Tracer#lookup(java.lang.String, java.lang.String)
+     */
+    @Override
+    public Span lookup(String kind, String name) {
+        LookupEvent event = new LookupEvent();
+        if (!event.isEnabled()) {
+            return NO_SPAN;
+        }
+        event.kind = kind;
+        event.name = name;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.internal.Tracer#compilation(java.lang.String)
+     */
+    @Override
+    public Span compilation(String sourceName) {
+        CompilationEvent event = new CompilationEvent();
+        if (!event.isEnabled()) {
+            return NO_SPAN;
+        }
+        event.sourceName = sourceName;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.internal.Tracer#classDefinition(java.lang.String, boolean)
+     */
+    @Override
+    public Span classDefinition(String className, boolean cached) {
+        ClassDefinitionEvent event = new ClassDefinitionEvent();
+        if (!event.isEnabled()) {
+            return NO_SPAN;
+        }
+        event.className = className;
+        event.cached = cached;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.internal.Tracer#swapped(java.lang.String, java.lang.String, int, boolean)
+     */
+    @Override
+    public void swapped(String binding, String className, int generation, boolean redefined) {
+        SwapEvent event = new SwapEvent();
+        if (event.shouldCommit()) {
+            event.binding = binding;
+            event.className = className;
+            event.generation = generation;
+            event.redefined = redefined;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Replacement of the class of a Groovy binding by its recompiled class
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+@Name("de.indisopht.guice.groovy.Swap")
+@Label("Groovy Delegate Swap")
+@Category("groovy-guice")
+@Description("Replacement of the class of a Groovy binding by its recompiled class")
+class SwapEvent extends Event {
+
+    @Label("Binding")
+    String binding;
+
+    @Label("Class")
+    String className;
+
+    @Label("Generation")
+    int generation;
+
+    @Label("Redefined")
+    @Description("true, if the class has been redefined in place instead of proxies swapping their delegate")
+    boolean redefined;
+}
@@ -0,0 +1,24 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * This package contains the Java Flight Recorder events of groovy-guice.
+ * It's compiled by the <code>jfr</code> profile only and loaded by
+ * {@link de.indisopht.guice.groovy.internal.Tracer}, if JFR is available.
+ *
+ * @since 0.5.0
+*/
+package de.indisopht.guice.groovy.internal.jfr;
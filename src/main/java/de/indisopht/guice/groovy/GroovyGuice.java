@@ -18,8 +18,10 @@ package de.indisopht.guice.groovy;
 
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovySystem;
 import groovy.lang.Script;
 
+import java.io.File;
 import java.io.Reader;
 import java.lang.annotation.Annotation;
 import java.security.AccessController;
@@ -27,10 +29,17 @@ import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.codehaus.groovy.control.CompilationFailedException;
@@ -42,10 +51,20 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Module;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.ProviderInstanceBinding;
 
 import de.indisopht.guice.groovy.internal.BridgedClassLoader;
 import de.indisopht.guice.groovy.internal.GroovyClassloaderFactory;
+import de.indisopht.guice.groovy.internal.ParallelCompiler;
+import de.indisopht.guice.groovy.internal.RecompileConfiguration;
+import de.indisopht.guice.groovy.internal.StartupProfile;
+import de.indisopht.guice.groovy.internal.StaticCompilationCustomizer;
 import de.indisopht.guice.groovy.internal.annotations.GroovyGuiceInternal;
+import de.indisopht.guice.groovy.internal.metrics.JmxMetrics;
+import de.indisopht.guice.groovy.spi.BindingMetricsMXBean;
+import de.indisopht.guice.groovy.spi.CompilationMetrics;
 
 /**
  * Fluent API for configuring the environment
@@ -134,6 +153,19 @@ public class GroovyGuice {
         return new GroovyModuleBuilderInstance();
     }
 
+    /**
+     * releases everything, which outlives an {@link Injector} created 
+     * with a module built by this Fluent API: the thread started by
+     * {@link GroovyModuleBuilderInstance#enableSourceWatching()} and the MXBeans registered by
+     * {@link GroovyModuleBuilderInstance#enableJmxMetrics()}. The Groovy
+     * bindings of the injector must not be used afterwards.
+     * 
+     * @param injector the injector to dispose
+     */
+    public static void dispose(Injector injector) {
+        injector.getInstance(GroovyClassloaderFactory.class).close();
+    }
+
     /**
      * Building Block of Fluent API
      * 
@@ -150,7 +182,17 @@ public class GroovyGuice {
         /**
          * {@link Script}s to bind
          */
-        Map<Key<Script>, String> scripts = new HashMap<Key<Script>, String>();
+        Map<Key<Script>, String> scripts = new LinkedHashMap<Key<Script>, String>();
+        
+        /**
+         * {@link Script}s, whose instances are reused per thread
+         */
+        Set<Key<Script>> reusedScripts = new HashSet<Key<Script>>();
+        
+        /**
+         * whether the instances of all {@link Script}s are reused per thread
+         */
+        private boolean reuseScriptsPerThread = false;
         
         /**
          * used for OSGi configuration
@@ -163,6 +205,21 @@ public class GroovyGuice {
          */
         private List<String> groovySourceModules = new ArrayList<String>();
         
+        /**
+         * whether all Groovy sources should be compiled while building
+         */
+        private boolean compileEagerly = false;
+        
+        /**
+         * {@link Module}s to search for {@link GroovyProvider}s to compile eagerly
+         */
+        private List<Module> eagerlyScannedModules = new ArrayList<Module>();
+        
+        /**
+         * executor for eager compilation; null means a default pool is used
+         */
+        private ExecutorService compilationExecutor = null;
+        
         /**
          * add path to current Classpath for
          * Groovy
@@ -227,7 +284,9 @@ public class GroovyGuice {
         }
         
         /**
-         * enables recompilation of Groovy source files
+         * enables recompilation of Groovy source files. Unless sources
+         * are watched, injections notice a changed source within
+         * 100 milliseconds, because sources aren't checked on every injection.
          * 
          * @return {@link GroovyModuleBuilderInstance}
          */
@@ -246,6 +305,232 @@ public class GroovyGuice {
             return this;
         }
 
+        /**
+         * enables recompilation of Groovy source files, which is triggered
+         * by a background thread watching the source files on the classpath.
+         * Proxies of recompilable classes don't do any checks on method calls
+         * and recompile only after their source file has changed.
+         * The source files are scanned every {@link GroovyClassloaderFactory#getStdRecompileInterval()}.
+         * The thread runs until the injector is disposed by {@link GroovyGuice#dispose(Injector)}.
+         * 
+         * @return {@link GroovyModuleBuilderInstance}
+         */
+        public GroovyModuleBuilderInstance enableSourceWatching() {
+            return enableSourceWatching(classloaderFactory.getStdRecompileInterval().getIntervalIn(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * same as {@link #enableSourceWatching()}, but with the
+         * given interval for scanning the source files
+         * 
+         * @param interval  the time between two scans of the source files
+         * @param tu    the time unit for interval
+         * @return {@link GroovyModuleBuilderInstance}
+         */
+        public GroovyModuleBuilderInstance enableSourceWatching(long interval, TimeUnit tu) {
+            classloaderFactory.setRecompile(true);
+            classloaderFactory.setSourceWatchInterval(new RecompileConfiguration(interval, tu));
+            return this;
+        }
+
+        /**
+         * lets the proxies of recompilable classes call the current
+         * instance directly instead of through reflection, so that
+         * the JIT can inline calls into Groovy classes. Proxies of
+         * interfaces are generated by cglib instead of being JDK proxies.
+         * 
+         * @return {@link GroovyModuleBuilderInstance}
+         */
+        public GroovyModuleBuilderInstance useDirectDispatch() {
+            classloaderFactory.setDirectDispatch(true);
+            return this;
+        }
+
+        /**
+         * redefines recompiled classes in place instead of proxying
+         * instances of recompilable classes, so that they are called at
+         * full speed. Requires the JVM to be started with groovy-guice as
+         * <code>-javaagent</code>; without the agent instances are proxied
+         * as before. Source watching is enabled, if it isn't yet.
+         * <br/>
+         * Only changes of method bodies can be redefined. After any other
+         * change existing instances keep their previous class and new
+         * instances are proxied again.
+         * 
+         * @return {@link GroovyModuleBuilderInstance}
+         */
+        public GroovyModuleBuilderInstance enableHotSwap() {
+            if (classloaderFactory.getSourceWatchInterval() == null) {
+                enableSourceWatching();
+            }
+            classloaderFactory.setHotSwap(true);
+            return this;
+        }
+
+        /**
+         * provides placeholders instead of instances of Groovy classes,
+         * which compile their source, when any of their methods is called
+         * the first time. Therefore creating an {@link Injector} or objects
+         * depending on Groovy classes doesn't compile sources, which are never used.
+         * Compilation errors are thrown by the first call.
+         * <br/>
+         * Sources are compiled on injection like before, if the {@link Injector}
+         * is created in {@link com.google.inject.Stage#PRODUCTION}, if the bound type
+         * is final or if instances are reused per thread.
+         * 
+         * @return {@link GroovyModuleBuilderInstance}
+         */
+        public GroovyModuleBuilderInstance compileOnFirstUse() {
+            classloaderFactory.setCompileOnFirstUse(true);
+            return this;
+        }
+
+        /**
+         * reports compile and recompile events of all Groovy bindings
+         * to the given metrics
+         * 
+         * @param metrics   the receiver of the events
+         * @return {@link GroovyModuleBuilderInstance}
+         */
+        public GroovyModuleBuilderInstance useMetrics(CompilationMetrics metrics) {
+            classloaderFactory.setMetrics(metrics);
+            return this;
+        }
+
+        /**
+         * registers an MXBean per Groovy binding in the platform MBean
+         * server, which reports how often and how long its class has
+         * been compiled, how often it has been recompiled and when it
+         * has been replaced the last time.
+         * 
+         * @return {@link GroovyModuleBuilderInstance}
+         * 
+         * @see BindingMetricsMXBean
+         */
+        public GroovyModuleBuilderInstance enableJmxMetrics() {
+            return useMetrics(new JmxMetrics(Integer.toHexString(System.identityHashCode(classloaderFactory))));
+        }
+
+        /**
+         * enables caching of compiled Groovy source files in the given
+         * directory. Cached classes are reused across restarts of the JVM
+         * as long as neither the source file, nor one of its Groovy
+         * dependencies, nor the compiler settings have changed.
+         *
+         * @param directory the cache directory; will be created, if it doesn't exist
+         * @return {@link GroovyModuleBuilderInstance}
+         */
+        public GroovyModuleBuilderInstance useBytecodeCache(String directory) {
+            classloaderFactory.setBytecodeCacheDirectory(new File(directory));
+            return this;
+        }
+
+        /**
+         * uses Groovy sources precompiled at build time without checking, 
+         * whether their sources have changed. Therefore the sources don't need
+         * to be deployed at all.
+         * <br/>Outside of production mode precompiled classes are used only,
+         * if all sources they were generated from are unchanged.
+         * 
+         * @return {@link GroovyModuleBuilderInstance}
+         * 
+         * @see de.indisopht.guice.groovy.internal.GroovyPrecompiler
+         */
+        public GroovyModuleBuilderInstance enableProductionMode() {
+            classloaderFactory.setProductionMode(true);
+            return this;
+        }
+
+        /**
+         * compiles all Groovy modules, all bound scripts and the sources
+         * of all {@link GroovyProvider}s bound in the given {@link Module}s
+         * concurrently, while {@link #build()} is called. Therefore
+         * compilation errors are reported before an {@link Injector} is created.
+         * <br/>Please note, that the given {@link Module}s are configured
+         * once more for finding their {@link GroovyProvider}s.
+         * 
+         * @param modules the {@link Module}s to search for {@link GroovyProvider}s
+         * @return {@link GroovyModuleBuilderInstance}
+         * 
+         * @see #useCompilationExecutor(ExecutorService)
+         */
+        public GroovyModuleBuilderInstance compileEagerly(Module... modules) {
+            this.compileEagerly=true;
+            Collections.addAll(eagerlyScannedModules, modules);
+            return this;
+        }
+
+        /**
+         * the executor used by {@link #compileEagerly(Module...)}.
+         * default: a fixed thread pool with one thread per available processor,
+         * which is shut down after compilation
+         * 
+         * @param executor the executor to compile with; won't be shut down by groovy-guice
+         * @return {@link GroovyModuleBuilderInstance}
+         */
+        public GroovyModuleBuilderInstance useCompilationExecutor(ExecutorService executor) {
+            this.compilationExecutor=executor;
+            return this;
+        }
+
+        /**
+         * compiles the Groovy classes matching any of the given patterns
+         * statically, so that their calls aren't dispatched dynamically.
+         * Sources of these classes must pass type checking.
+         * <br/>
+         * A pattern is either the fully qualified name of a class, e.g. of
+         * the class bound by a {@link GroovyProvider}, a package name followed
+         * by <code>.*</code> for all classes of the package and its subpackages,
+         * or <code>*</code> for all classes including scripts.
+         * 
+         * @param patterns  the classes and packages to compile statically
+         * @return {@link GroovyModuleBuilderInstance}
+         * @throws ConfigurationException   if the Groovy version in use can't compile statically
+         */
+        public GroovyModuleBuilderInstance compileStatically(String... patterns) {
+            if (!StaticCompilationCustomizer.isSupported()) {
+                throw new ConfigurationException("static compilation requires Groovy 2.0 or later, but Groovy " + GroovySystem.getVersion() + " is used");
+            }
+            Collections.addAll(classloaderFactory.getStaticallyCompiled(), patterns);
+            return this;
+        }
+
+        /**
+         * replays the startup profile stored in the given file, while the
+         * {@link Injector} is created: the Groovy sources compiled and the
+         * classes loaded during the previous startup are compiled and loaded
+         * again on background threads, so that they're ready, when they're needed.
+         * The current startup, i.e. everything needed within
+         * {@link StartupProfile#RECORDING_WINDOW} milliseconds, is recorded and
+         * written to the file, when the JVM shuts down or another setup uses the
+         * same file, so the profile of a reference startup can be shipped together
+         * with the application, too.
+         * 
+         * @param file the file storing the profile; will be created, if it doesn't exist
+         * @return {@link GroovyModuleBuilderInstance}
+         * 
+         * @see #useCompilationExecutor(ExecutorService)
+         */
+        public GroovyModuleBuilderInstance useStartupProfile(String file) {
+            classloaderFactory.setStartupProfile(StartupProfile.open(new File(file)));
+            return this;
+        }
+
+        /**
+         * lets each thread reuse the instances of all bound {@link Script}s
+         * instead of getting new instances on every injection. The
+         * {@link groovy.lang.Binding} of a script is cleared, before it's
+         * injected again.
+         * 
+         * @return {@link GroovyModuleBuilderInstance}
+         * 
+         * @see GroovyProvider#setReusePerThread(boolean)
+         */
+        public GroovyModuleBuilderInstance reuseScriptsPerThread() {
+            this.reuseScriptsPerThread=true;
+            return this;
+        }
+
         /**
          * starts a subpart of this Fluent API
          * for configuring scripts
@@ -288,22 +573,25 @@ public class GroovyGuice {
          * @return {@link Collection} of {@link Module}s
          */
         public Module build() {
+            if (compileEagerly) {
+                compileAllSources();
+            }
+            if (classloaderFactory.getStartupProfile() != null) {
+                replayStartupProfile();
+            }
             return new AbstractModule() {
 
                 @Override
                 protected void configure() {
-                    classloaderFactory.setBridgedClassloader(AccessController.doPrivileged(new PrivilegedAction<BridgedClassLoader>() {
-                        public BridgedClassLoader run() {
-                            return new BridgedClassLoader(Thread.currentThread().getContextClassLoader(), bundle);
-                        }
-                    }));
+                    prepareBridgedClassloader();
                     bind(GroovyClassLoader.class).annotatedWith(GroovyGuiceInternal.class).toInstance(classloaderFactory.createGroovyClassLoader());
                     bind(GroovyClassloaderFactory.class).toInstance(classloaderFactory);
                     for (final Entry<Key<Script>, String> currentEntry : scripts.entrySet()) {
                         AccessController.doPrivileged(new PrivilegedAction<Void>() {
                             @Override
                             public Void run() {
-                                bind(currentEntry.getKey()).toProvider(new GroovyProvider<Script>(currentEntry.getValue()){});
+                                boolean reusePerThread=reuseScriptsPerThread || reusedScripts.contains(currentEntry.getKey());
+                                bind(currentEntry.getKey()).toProvider(new GroovyProvider<Script>(currentEntry.getValue()){}.setReusePerThread(reusePerThread));
                                 return null;
                             }
                             
@@ -328,6 +616,79 @@ public class GroovyGuice {
                 }
             };
         }
+
+        private void prepareBridgedClassloader() {
+            if (classloaderFactory.getBridgedClassloader() == null) {
+                classloaderFactory.setBridgedClassloader(AccessController.doPrivileged(new PrivilegedAction<BridgedClassLoader>() {
+                    public BridgedClassLoader run() {
+                        return new BridgedClassLoader(Thread.currentThread().getContextClassLoader(), bundle);
+                    }
+                }));
+            }
+        }
+
+        /**
+         * compiles all Groovy modules, scripts and sources of {@link GroovyProvider}s
+         * bound in {@link #eagerlyScannedModules} in parallel
+         */
+        private void compileAllSources() {
+            prepareBridgedClassloader();
+            ParallelCompiler compiler = new ParallelCompiler(classloaderFactory.createGroovyClassLoader(), classloaderFactory.getCodeBase());
+            for (String currentSourceModule : groovySourceModules) {
+                compiler.addSourceModule(currentSourceModule);
+            }
+            for (String currentScript : scripts.values()) {
+                compiler.addSource(currentScript);
+            }
+            for (Element currentElement : Elements.getElements(eagerlyScannedModules)) {
+                if (currentElement instanceof ProviderInstanceBinding<?>) {
+                    Object provider = ((ProviderInstanceBinding<?>) currentElement).getProviderInstance();
+                    if (provider instanceof GroovyProvider<?>) {
+                        compiler.addSource(((GroovyProvider<?>) provider).getSomethingGroovy());
+                    }
+                }
+            }
+            ExecutorService executor = compilationExecutor;
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            }
+            try {
+                compiler.compile(executor);
+            } finally {
+                if (compilationExecutor == null) {
+                    executor.shutdown();
+                }
+            }
+        }
+
+        /**
+         * starts replaying the startup profile in the background. The default
+         * pool consists of daemon threads, which terminate after replaying.
+         */
+        private void replayStartupProfile() {
+            prepareBridgedClassloader();
+            int threads = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = compilationExecutor;
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    private final AtomicInteger count=new AtomicInteger();
+                    
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread result=new Thread(r, "groovy-guice startup replay "+count.incrementAndGet());
+                        result.setDaemon(true);
+                        return result;
+                    }
+                });
+            }
+            try {
+                classloaderFactory.getStartupProfile().replay(classloaderFactory.createGroovyClassLoader(), classloaderFactory.getCodeBase(), classloaderFactory.getBridgedClassloader(), executor, threads);
+            } finally {
+                if (compilationExecutor == null) {
+                    executor.shutdown();
+                }
+            }
+        }
     }
     
     /**
@@ -343,6 +704,7 @@ public class GroovyGuice {
         private final GroovyModuleBuilderInstance parent;
         private final String script;
         private Annotation keyAnnotation=null;
+        private boolean reusePerThread=false;
         
         public ScriptBindConfig(GroovyModuleBuilderInstance parent, String script) {
             this.parent=parent;
@@ -362,6 +724,18 @@ public class GroovyGuice {
             return this;
         }
         
+        /**
+         * lets each thread reuse the instance of this script
+         * 
+         * @return {@link ScriptBindConfig}
+         * 
+         * @see GroovyModuleBuilderInstance#reuseScriptsPerThread()
+         */
+        public ScriptBindConfig reusePerThread() {
+            this.reusePerThread=true;
+            return this;
+        }
+        
         /**
          * final step for configuring a {@link Script} on
          * the fly
@@ -369,12 +743,7 @@ public class GroovyGuice {
          * @return {@link GroovyModuleBuilderInstance}
          */
         public GroovyModuleBuilderInstance bind() {
-            if (keyAnnotation!=null) {
-                parent.scripts.put(Key.get(Script.class, keyAnnotation), script);
-            } else {
-                parent.scripts.put(Key.get(Script.class), script);
-            }
-            return parent;
+            return bindWithAnnotation(keyAnnotation);
         }
         
         /**
@@ -384,10 +753,15 @@ public class GroovyGuice {
          * @return {@link GroovyModuleBuilderInstance}
          */
         public GroovyModuleBuilderInstance bindWithAnnotation(Annotation annotation) {
+            Key<Script> key;
             if (annotation!=null) {
-                parent.scripts.put(Key.get(Script.class, annotation), script);
+                key=Key.get(Script.class, annotation);
             } else {
-                parent.scripts.put(Key.get(Script.class), script);
+                key=Key.get(Script.class);
+            }
+            parent.scripts.put(key, script);
+            if (reusePerThread) {
+                parent.reusedScripts.add(key);
             }
             return parent;
         }
@@ -16,11 +16,13 @@
 
 package de.indisopht.guice.groovy;
 
+import groovy.lang.Binding;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyCodeSource;
+import groovy.lang.Script;
 
-import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.MalformedURLException;
@@ -29,22 +31,37 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.LazyLoader;
 
 import org.apache.log4j.Logger;
 import org.codehaus.groovy.control.CompilationFailedException;
 
+import com.google.inject.AbstractModule;
 import com.google.inject.CreationException;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Provider;
+import com.google.inject.Stage;
 import com.google.inject.spi.Message;
 
 import de.indisopht.guice.groovy.internal.GroovyClassloaderFactory;
+import de.indisopht.guice.groovy.internal.GroovyGuiceClassLoader;
+import de.indisopht.guice.groovy.internal.GroovyGuiceClassLoader.Redefinition;
+import de.indisopht.guice.groovy.internal.HotSwapAgent;
 import de.indisopht.guice.groovy.internal.RecompileConfiguration;
+import de.indisopht.guice.groovy.internal.RecompilationTimer;
+import de.indisopht.guice.groovy.internal.SourceChangeDetector;
+import de.indisopht.guice.groovy.internal.SourceWatcher;
+import de.indisopht.guice.groovy.internal.StartupProfile;
+import de.indisopht.guice.groovy.internal.SourceWatcher.SourceChangeListener;
+import de.indisopht.guice.groovy.internal.Tracer;
+import de.indisopht.guice.groovy.internal.Tracer.Span;
 import de.indisopht.guice.groovy.internal.annotations.GroovyGuiceInternal;
 import de.indisopht.guice.groovy.internal.interceptors.RecompilationInterceptor;
+import de.indisopht.guice.groovy.internal.interceptors.Recompiler;
+import de.indisopht.guice.groovy.spi.CompilationMetrics;
 
 /**
  * {@link Provider} implementation for Groovy
@@ -58,11 +75,18 @@ import de.indisopht.guice.groovy.internal.interceptors.RecompilationInterceptor;
 public abstract class GroovyProvider<T> implements Provider<T> {
 
     private static final Logger logger=Logger.getLogger(GroovyProvider.class);
-    private static final String PROXYCLASSNAME=RecompilationInterceptor.class.toString().substring(6);
+
+    /**
+     * time in milliseconds between two checks for changed sources on injection, if sources aren't watched
+     */
+    private static final long STALENESS_CHECK_INTERVAL = 100;
     
     @Inject
     private Injector injector;
     
+    @Inject
+    private Stage stage;
+    
     @Inject(optional=true) @GroovyGuiceInternal
     private GroovyClassLoader groovyLoader;
     
@@ -73,8 +97,18 @@ public abstract class GroovyProvider<T> implements Provider<T> {
     private String somethingGroovy;
     private boolean dynamicRecompilationEnabled=false;
     private boolean proxyCreated=false;
+    private boolean sourceFileResolved=false;
     private GroovyCodeSource sourceFile;
+    private SourceChangeDetector sourceChangeDetector;
+    private volatile boolean stalenessCheckDue = false;
+    private SourceChangeListener stalenessListener = null;
+    private volatile InstanceProvider<T> instanceProvider;
     private RecompileConfiguration recompileConfig = null;
+    private volatile boolean hotSwapFailed = false;
+    private SourceChangeListener hotSwapListener = null;
+    private final AtomicInteger generation = new AtomicInteger();
+    private boolean reusePerThread = false;
+    private final ThreadLocal<ReusedInstance<T>> reusedInstances = new ThreadLocal<ReusedInstance<T>>();
     
     
     /**
@@ -128,53 +162,355 @@ public abstract class GroovyProvider<T> implements Provider<T> {
     /**
      * @see com.google.inject.Provider#get()
      */
-    @SuppressWarnings("unchecked")
     @Override
     public T get() {
-        if (proxyCreated && !classloaderFactory.isRecompile() && new RuntimeException().getStackTrace()[1].getClassName().equals(PROXYCLASSNAME)) {
-            // return null, if classes shouldn't be recompiled for proxy
-            return null;
-        }
         if (classloaderFactory == null) {
             classloaderFactory = injector.getInstance(GroovyClassloaderFactory.class);
         }
+        if (isCompiledOnFirstUse()) {
+            Class<T> placeholderType = getBindingClass();
+            if (!Modifier.isFinal(placeholderType.getModifiers())) {
+                return createPlaceholder(placeholderType);
+            }
+            logger.debug("compiling " + somethingGroovy + " on injection, because final " + placeholderType.getName() + " can't be a placeholder");
+        }
+        return provide();
+    }
+
+    /**
+     * @return true, if a placeholder should be provided instead of compiling somethingGroovy now
+     */
+    private boolean isCompiledOnFirstUse() {
+        return classloaderFactory.isCompileOnFirstUse() && stage != Stage.PRODUCTION && !reusePerThread;
+    }
+
+    /**
+     * @param placeholderType   the type to be provided
+     * @return a placeholder, which calls {@link #provide()}, when any of its methods is called the first time
+     */
+    private T createPlaceholder(Class<T> placeholderType) {
+        logger.debug("creating placeholder for "+somethingGroovy);
+        try {
+            return classloaderFactory.getProxyFactory().createLazyProxy(placeholderType, new LazyLoader() {
+                @Override
+                public Object loadObject() {
+                    return provide();
+                }
+            });
+        } catch (IllegalStateException e) {
+            throw new CreationException(Arrays.asList(new Message(e, e.getMessage())));
+        }
+    }
+
+    /**
+     * @return an instance of the class loaded for somethingGroovy or a recompiling proxy for it
+     */
+    private T provide() {
         if (groovyLoader == null) {
             groovyLoader = classloaderFactory.createGroovyClassLoader();
         }
-        if (sourceFile == null) {
-            URL sourcefileURL;
+        if (!sourceFileResolved) {
+            URL sourcefileURL = null;
+            Span lookup = Tracer.getInstance().lookup(Tracer.SOURCE, somethingGroovy);
             try {
                 sourcefileURL = groovyLoader.getResourceLoader().loadGroovySource(somethingGroovy);
                 if (sourcefileURL!=null) {
-                    sourceFile=new GroovyCodeSource(new File(sourcefileURL.getFile()));
+                    sourceFile=GroovyGuiceClassLoader.createCodeSource(sourcefileURL);
+                    // sources in archives never change
+                    if (classloaderFactory.isRecompile() && sourceFile.getFile() != null) {
+                        sourceChangeDetector=new SourceChangeDetector(sourceFile.getFile());
+                        watchForChanges();
+                    }
                 }
             } catch (MalformedURLException e) {
                 throw new CreationException(Arrays.asList(new Message(e, e.getMessage())));
             } catch (IOException e) {
                 throw new CreationException(Arrays.asList(new Message(e, e.getMessage())));
+            } finally {
+                lookup.finish(sourcefileURL != null);
             }
+            sourceFileResolved=true;
+        }
+        if (reusePerThread) {
+            return reusedInstance();
+        }
+        T result = newInstance();
+        if (dynamicRecompilationEnabled && isHotSwapping()) {
+            watchForHotSwap();
+            return result;
         }
-        T result = injector.getInstance(loadSomethingGroovy());
         if (dynamicRecompilationEnabled && !proxyCreated) {
             logger.debug("creating recompiling proxy for "+somethingGroovy);
             try {
                 if (recompileConfig==null) {
                     recompileConfig=classloaderFactory.getStdRecompileInterval();
                 }
-                if (bindingType==null) {
-                	bindingType=((ParameterizedType)getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-                }
-                String clazz=bindingType.toString();
-                clazz=clazz.substring(clazz.indexOf(" ")).trim();
+                Class<T> proxiedType=getBindingClass();
                 proxyCreated=true;
-                return (T)Enhancer.create(Class.forName(clazz), new RecompilationInterceptor(recompileConfig, result, this));
-            } catch (ClassNotFoundException e) {
-                throw new CreationException(Arrays.asList(new Message("unknown class: "+e.getMessage())));
+                if (classloaderFactory.isDirectDispatch()) {
+                    return classloaderFactory.getProxyFactory().createDispatchingProxy(proxiedType, createInterceptor(result));
+                }
+                return classloaderFactory.getProxyFactory().createProxy(proxiedType, createInterceptor(result));
+            } catch (IllegalStateException e) {
+                throw new CreationException(Arrays.asList(new Message(e, e.getMessage())));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true, if instances aren't proxied, because their classes are
+     *  redefined in place on changes of the source
+     */
+    private boolean isHotSwapping() {
+        return classloaderFactory.isHotSwap() && !hotSwapFailed && sourceChangeDetector != null
+                && groovyLoader instanceof GroovyGuiceClassLoader && HotSwapAgent.isAvailable();
+    }
+
+    /**
+     * lets the {@link SourceWatcher} or else the {@link RecompilationTimer}
+     * signal, when the loaded class has to be checked for changes
+     */
+    private void watchForChanges() {
+        stalenessListener = new SourceChangeListener() {
+            @Override
+            public void sourceChanged(String sourceName) {
+                stalenessCheckDue = true;
             }
+        };
+        SourceWatcher watcher = classloaderFactory.getSourceWatcher();
+        if (watcher != null) {
+            // notified about every change, because the class might depend on the changed source
+            watcher.addListener(stalenessListener);
+        } else {
+            RecompilationTimer.schedule(stalenessListener, STALENESS_CHECK_INTERVAL);
+        }
+    }
+
+    /**
+     * lets the {@link SourceWatcher} redefine the class of unproxied
+     * instances, if sources are watched
+     */
+    private synchronized void watchForHotSwap() {
+        SourceWatcher watcher = classloaderFactory.getSourceWatcher();
+        if (hotSwapListener == null && watcher != null) {
+            hotSwapListener = new HotSwapListener();
+            watcher.addListener(hotSwapListener);
+        }
+    }
+
+    /**
+     * @return the class or raw type of the binding type, which is
+     *  the type argument of the subclass, if it hasn't been set
+     */
+    @SuppressWarnings("unchecked")
+    private Class<T> getBindingClass() {
+        if (bindingType==null) {
+            bindingType=((ParameterizedType)getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+        }
+        return (Class<T>) toClass(bindingType);
+    }
+
+    /**
+     * @param type  the binding type
+     * @return the class or raw type of type
+     */
+    private static Class<?> toClass(Type type) {
+        if (type instanceof Class<?>) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return toClass(((ParameterizedType) type).getRawType());
+        }
+        throw new CreationException(Arrays.asList(new Message("unknown class: " + type)));
+    }
+
+    /**
+     * @param delegate  the object to be proxied
+     * @return an interceptor, which is notified by the {@link SourceWatcher}, if sources are watched,
+     *  or which checks the configured interval on every call otherwise
+     */
+    private RecompilationInterceptor createInterceptor(T delegate) {
+        SourceWatcher watcher = classloaderFactory.getSourceWatcher();
+        if (watcher == null) {
+            return new RecompilationInterceptor(recompileConfig, delegate, new ProxyRecompiler());
+        }
+        RecompilationInterceptor result = new RecompilationInterceptor(delegate, new ProxyRecompiler());
+        if (sourceFile != null) {
+            // notified about every change, because the class might depend on the changed source
+            watcher.addListener(result);
         }
         return result;
     }
 
+    /**
+     * creates an instance of the class loaded for somethingGroovy. The
+     * loaded class and the {@link Provider} of the {@link Injector} for it
+     * are reused, until the content of the source file or of the source of
+     * a Groovy class it depends on changes. Therefore neither
+     * the source nor a {@link com.google.inject.Key} has to be processed per call,
+     * and sources are checked only after a change has been signalled.
+     * 
+     * @return a new instance
+     */
+    private T newInstance() {
+        return refreshInstanceProvider().provider.get();
+    }
+
+    /**
+     * @return the instance created for the current thread, which is replaced, if
+     *  its class has been recompiled; the binding of {@link Script}s is cleared
+     */
+    private T reusedInstance() {
+        InstanceProvider<T> current = refreshInstanceProvider();
+        ReusedInstance<T> reused = reusedInstances.get();
+        if (reused == null || reused.instance.getClass() != current.loadedClass) {
+            reused = new ReusedInstance<T>(current.provider.get());
+            reusedInstances.set(reused);
+        } else {
+            reused.reset();
+        }
+        return reused.instance;
+    }
+
+    /**
+     * returns the {@link Provider} for the current class loaded for somethingGroovy.
+     * A change may be noticed by the {@link SourceWatcher} and by injecting
+     * threads at once, therefore it's handled under the lock of this provider,
+     * and a thread, which finds it handled already, uses the result.
+     * 
+     * @return the {@link Provider} for the current class loaded for somethingGroovy
+     */
+    private InstanceProvider<T> refreshInstanceProvider() {
+        InstanceProvider<T> current = instanceProvider;
+        int currentGeneration = generation.get();
+        if (current != null && !isOutdated(current.loadedClass)) {
+            return current;
+        }
+        synchronized (this) {
+            if (instanceProvider != current || generation.get() != currentGeneration) {
+                return instanceProvider;
+            }
+            CompilationMetrics metrics = classloaderFactory.getMetrics();
+            if (current != null && metrics != null) {
+                metrics.recompileTriggered(somethingGroovy);
+            }
+            if (current != null && isHotSwapping()) {
+                long start = System.nanoTime();
+                Redefinition redefinition = ((GroovyGuiceClassLoader) groovyLoader).redefine(sourceFile);
+                if (redefinition == Redefinition.REDEFINED) {
+                    currentGeneration = generation.incrementAndGet();
+                    Tracer.getInstance().swapped(somethingGroovy, current.loadedClass.getName(), currentGeneration, true);
+                    if (metrics != null) {
+                        metrics.compiled(somethingGroovy, System.nanoTime() - start);
+                        metrics.swapped(somethingGroovy, currentGeneration);
+                    }
+                    return current;
+                }
+                if (redefinition == Redefinition.NOT_COMPILED) {
+                    // the class is redefined, as soon as the source has been fixed
+                    logger.warn("not redefining " + current.loadedClass.getName() + ", because " + somethingGroovy + " can't be compiled");
+                    if (metrics != null) {
+                        metrics.compilationFailed(somethingGroovy, System.nanoTime() - start);
+                    }
+                    return current;
+                }
+                logger.warn("can't redefine " + current.loadedClass.getName() + " in place, so existing instances keep the previous class and new instances are proxied");
+                hotSwapFailed = true;
+            }
+            Class<T> loadedClass = loadMeasured(metrics);
+            StartupProfile profile = classloaderFactory.getStartupProfile();
+            if (current == null && profile != null) {
+                profile.sourceCompiled(somethingGroovy);
+            }
+            if (current == null || current.loadedClass != loadedClass) {
+                if (current != null) {
+                    currentGeneration = generation.incrementAndGet();
+                    Tracer.getInstance().swapped(somethingGroovy, loadedClass.getName(), currentGeneration, false);
+                    if (metrics != null) {
+                        metrics.swapped(somethingGroovy, currentGeneration);
+                    }
+                }
+                current = new InstanceProvider<T>(loadedClass, current == null ? injector.getProvider(loadedClass) : createProvider(loadedClass));
+                instanceProvider = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * returns the {@link Provider} for a recompiled class. If classes are
+     * recompiled, every recompiled class is bound in a child
+     * {@link Injector} of its own, because an {@link Injector} never releases
+     * the bindings it creates for classes on demand. Therefore a superseded
+     * class, its classloader and its child {@link Injector} can be garbage
+     * collected, as soon as none of its instances is referenced any longer.
+     * The class loaded first is bound in the {@link Injector} itself, so
+     * that bindings, which are never recompiled, don't cost a child
+     * {@link Injector}.
+     * 
+     * @param loadedClass   the class recompiled for somethingGroovy
+     * @return the provider for instances of loadedClass
+     */
+    private Provider<T> createProvider(final Class<T> loadedClass) {
+        if (!classloaderFactory.isRecompile()) {
+            return injector.getProvider(loadedClass);
+        }
+        try {
+            return injector.createChildInjector(new AbstractModule() {
+                @Override
+                protected void configure() {
+                    bind(loadedClass);
+                }
+            }).getProvider(loadedClass);
+        } catch (CreationException e) {
+            logger.debug("binding " + loadedClass.getName() + " in the injector, because it can't be bound in a child injector: " + e.getMessage());
+            return injector.getProvider(loadedClass);
+        }
+    }
+
+    /**
+     * @param metrics   the receiver of compile events or null
+     * @return the class loaded by {@link #loadSomethingGroovy()}
+     */
+    private Class<T> loadMeasured(CompilationMetrics metrics) {
+        if (metrics == null) {
+            return loadSomethingGroovy();
+        }
+        long start = System.nanoTime();
+        try {
+            Class<T> result = loadSomethingGroovy();
+            metrics.compiled(somethingGroovy, System.nanoTime() - start);
+            return result;
+        } catch (CreationException e) {
+            metrics.compilationFailed(somethingGroovy, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * checks for changes only, after a change has been signalled or the
+     * check interval has elapsed, so that an injection reads a volatile
+     * flag only.
+     * 
+     * @param loadedClass   the class currently loaded for somethingGroovy
+     * @return true, if the class has to be recompiled, because its source or
+     *  the source of a class it depends on has changed
+     */
+    private boolean isOutdated(Class<T> loadedClass) {
+        if (sourceChangeDetector == null || !stalenessCheckDue) {
+            return false;
+        }
+        // reset before checking, so that a change during the check is signalled again
+        stalenessCheckDue = false;
+        boolean sourceChanged = sourceChangeDetector.hasChanged();
+        if (groovyLoader instanceof GroovyGuiceClassLoader) {
+            // removes outdated dependencies from the class cache, so that they are recompiled, too
+            return ((GroovyGuiceClassLoader) groovyLoader).invalidateIfStale(loadedClass) || sourceChanged;
+        }
+        return sourceChanged;
+    }
+
     /**
      * encapsulates how somethingGroovy is parsed
      * 
@@ -182,30 +518,42 @@ public abstract class GroovyProvider<T> implements Provider<T> {
      */
     @SuppressWarnings("unchecked")
     private Class<T> loadSomethingGroovy() {
-        List<Message> exceptionMessages=new ArrayList<Message>();
+        List<Message> exceptionMessages=null;
         Class<T> classFromGroovy=null;
         try {
+            if (groovyLoader instanceof GroovyGuiceClassLoader) {
+                classFromGroovy = (Class<T>) ((GroovyGuiceClassLoader) groovyLoader).loadPrecompiled(somethingGroovy);
+            }
             try {
-                if (sourceFile!=null) {
+                if (classFromGroovy == null && sourceFile!=null) {
                     classFromGroovy = groovyLoader.parseClass(sourceFile, !classloaderFactory.isRecompile());
                 }
             } catch (CompilationFailedException cfe) {
                 if (logger.isDebugEnabled()) {
                     logger.debug("while compiling " + somethingGroovy + " :" + cfe.getMessage(), cfe);
                 }
+                exceptionMessages=new ArrayList<Message>();
                 exceptionMessages.add(new Message("while compiling " + somethingGroovy + " :" + cfe.getMessage()));
             }
             if (classFromGroovy == null) {
                 if (classloaderFactory.getCodeBase()==null) {
                     classFromGroovy = groovyLoader.parseClass(somethingGroovy);
+                } else if (groovyLoader instanceof GroovyGuiceClassLoader) {
+                    classFromGroovy = (Class<T>) ((GroovyGuiceClassLoader) groovyLoader).parseInline(new GroovyCodeSource(somethingGroovy, groovyLoader.generateScriptName(), classloaderFactory.getCodeBase()));
                 } else {
                     classFromGroovy = groovyLoader.parseClass(new GroovyCodeSource(somethingGroovy, groovyLoader.generateScriptName(), classloaderFactory.getCodeBase()), true);
                 }
             }
         } catch (ClassCastException cce) {
+            if (exceptionMessages == null) {
+                exceptionMessages=new ArrayList<Message>();
+            }
             exceptionMessages.add(new Message("while compiling " + somethingGroovy + " :" + cce.getMessage()));
         }
         if (classFromGroovy == null) {
+            if (exceptionMessages == null) {
+                exceptionMessages=new ArrayList<Message>();
+            }
             exceptionMessages.add(new Message("don't know what to do with: " + somethingGroovy));
             throw new CreationException(exceptionMessages);
         }
@@ -230,6 +578,32 @@ public abstract class GroovyProvider<T> implements Provider<T> {
         return this;
     }
 
+    /**
+     * @return true, if each thread gets the same instance on every call of {@link #get()}
+     */
+    public boolean isReusePerThread() {
+        return reusePerThread;
+    }
+
+    /**
+     * lets each thread reuse the instance created for it, instead of creating
+     * a new instance on every call of {@link #get()}. The {@link Binding} of
+     * reused {@link Script}s is cleared before it's returned again, so that
+     * a script can be run by many threads concurrently without creating an
+     * instance per run. A thread must not use its instance any longer,
+     * once it has called {@link #get()} again.
+     * <br/>
+     * Reused instances aren't proxied for recompilation. After a
+     * recompilation each thread gets a new instance on its next call.
+     * 
+     * @param reusePerThread    true, if each thread should reuse its instance
+     * @return this
+     */
+    public GroovyProvider<T> setReusePerThread(boolean reusePerThread) {
+        this.reusePerThread = reusePerThread;
+        return this;
+    }
+
     public String getSomethingGroovy() {
         return somethingGroovy;
     }
@@ -246,4 +620,100 @@ public abstract class GroovyProvider<T> implements Provider<T> {
     public String toString() {
         return getClass().getSimpleName() + "[" + getBindingType() + ": " + getSomethingGroovy() + "]";
     }
+
+    /**
+     * {@link Provider} of the {@link Injector} for a loaded class
+     */
+    private static final class InstanceProvider<T> {
+        
+        private final Class<T> loadedClass;
+        private final Provider<T> provider;
+
+        InstanceProvider(Class<T> loadedClass, Provider<T> provider) {
+            this.loadedClass = loadedClass;
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * instance reused by a thread together with the {@link Binding}
+     * it was created with, if it's a {@link Script}
+     */
+    private static final class ReusedInstance<T> {
+
+        private final T instance;
+        private final Binding binding;
+
+        ReusedInstance(T instance) {
+            this.instance = instance;
+            this.binding = instance instanceof Script ? ((Script) instance).getBinding() : null;
+        }
+
+        /**
+         * clears the variables of the script and restores its binding,
+         * if it has been replaced during the previous use
+         */
+        void reset() {
+            if (binding != null) {
+                binding.getVariables().clear();
+                ((Script) instance).setBinding(binding);
+            }
+        }
+    }
+
+    /**
+     * redefines the class of unproxied instances, when a source changes
+     */
+    private final class HotSwapListener implements SourceChangeListener {
+
+        /**
+         * @see de.indisopht.guice.groovy.internal.SourceWatcher.SourceChangeListener#sourceChanged(java.lang.String)
+         */
+        @Override
+        public void sourceChanged(String sourceName) {
+            if (!isHotSwapping()) {
+                return;
+            }
+            // the listeners of the watcher are notified in any order
+            stalenessCheckDue = true;
+            try {
+                refreshInstanceProvider();
+            } catch (CreationException e) {
+                logger.warn("not redefining " + somethingGroovy + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * creates new instances for the recompiling proxy of this provider
+     */
+    private final class ProxyRecompiler implements Recompiler {
+
+        /**
+         * @see de.indisopht.guice.groovy.internal.interceptors.Recompiler#recompile(java.lang.Object)
+         */
+        @Override
+        public Object recompile(Object delegate) {
+            if (!classloaderFactory.isRecompile()) {
+                // classes shouldn't be recompiled for proxy
+                return null;
+            }
+            // the change may have been noticed by another call of get() already,
+            // so the delegate is compared with the current class instead
+            stalenessCheckDue = true;
+            InstanceProvider<T> current = refreshInstanceProvider();
+            if (delegate != null && delegate.getClass() == current.loadedClass) {
+                return null;
+            }
+            return current.provider.get();
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return getSomethingGroovy();
+        }
+    }
 }
\ No newline at end of file
@@ -16,11 +16,35 @@
 
 package de.indisopht.guice.groovy.internal;
 
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+import de.indisopht.guice.groovy.internal.Tracer.Span;
 
 /**
  * Classloader, that bridges between Groovy
  * and other classloaders or class loading mechanisms.
+ * <br/>
+ * Lookups aren't serialized on the classloader instance. Instead
+ * every class name is guarded by one of {@link #LOCK_STRIPES} locks,
+ * so that concurrent lookups of different classes don't block each
+ * other. On Java 7 and later the classloader is registered as parallel
+ * capable, so that the VM doesn't lock the instance either.
+ * <br/>
+ * Names, which can't be found neither by the bundle nor by the parent,
+ * are remembered in a bounded negative cache, so that repeated misses
+ * (e.g. default imports or <code>BeanInfo</code> classes probed by
+ * Groovy) don't need to be resolved again. The cache is cleared
+ * whenever the wiring of any bundle changes.
  * 
  * @see org.osgi.framework.Bundle
  * 
@@ -29,7 +53,27 @@ import org.osgi.framework.Bundle;
  */
 public class BridgedClassLoader extends ClassLoader {
 
+    private static final Logger logger = Logger.getLogger(BridgedClassLoader.class);
+
+    /**
+     * number of locks guarding the class names, must be a power of two
+     */
+    static final int LOCK_STRIPES = 64;
+
+    /**
+     * maximum number of names in the negative cache
+     */
+    static final int MAX_MISSING_CLASSES = 4096;
+
+
+    static {
+        enableParallelLoading();
+    }
+
     protected Bundle bundle;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ConcurrentMap<String, Boolean> missingClasses = new ConcurrentHashMap<String, Boolean>();
+    private volatile StartupProfile startupProfile = null;
 
     public BridgedClassLoader(ClassLoader parent) {
         this(parent, null);
@@ -38,6 +82,59 @@ public class BridgedClassLoader extends ClassLoader {
     public BridgedClassLoader(ClassLoader parent, Bundle b) {
         super(parent);
         this.bundle = b;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        if (b != null) {
+            WiringListener.register(this, b);
+        }
+    }
+
+    /**
+     * forgets all names, which couldn't be found so far. Must be called,
+     * if classes may have become visible to the parent classloader.
+     */
+    public void clearMissingClasses() {
+        if (logger.isDebugEnabled() && !missingClasses.isEmpty()) {
+            logger.debug("forgetting " + missingClasses.size() + " missing classes");
+        }
+        missingClasses.clear();
+    }
+
+    /**
+     * @param startupProfile    the profile recording the names of all classes found; null disables recording
+     */
+    public void setStartupProfile(StartupProfile startupProfile) {
+        this.startupProfile = startupProfile;
+    }
+
+    /**
+     * registers this classloader class as parallel capable. Has no
+     * effect before Java 7, so it's called by reflection. Subclasses
+     * aren't parallel capable unless they register themselves.
+     *
+     * @return true, if the class has been registered
+     */
+    private static boolean enableParallelLoading() {
+        try {
+            Method register = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+            return Boolean.TRUE.equals(register.invoke(null));
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (Exception e) {
+            logger.debug("can't register " + BridgedClassLoader.class.getName() + " as parallel capable: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param name  a class name
+     * @return the lock guarding the lookup of name
+     */
+    protected Object getLockFor(String name) {
+        int hash = name.hashCode();
+        hash ^= (hash >>> 16);
+        return locks[hash & (LOCK_STRIPES - 1)];
     }
 
     /**
@@ -53,34 +150,133 @@ public class BridgedClassLoader extends ClassLoader {
      * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
      */
     @Override
-    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (missingClasses.containsKey(name)) {
+            throw new MissingClassException(name);
+        }
+        synchronized (getLockFor(name)) {
+            return loadClassUnderLock(name, resolve);
+        }
+    }
+
+    private Class<?> loadClassUnderLock(String name, boolean resolve) throws ClassNotFoundException {
         Class<?> result = findLoadedClass(name);
-        if (result!=null) {
-            if (resolve) {
-                resolveClass(result);
+        if (result==null) {
+            Span lookup = Tracer.getInstance().lookup(Tracer.CLASS, name);
+            try {
+                result = loadFromBundleOrParent(name);
+            } finally {
+                lookup.finish(result != null);
             }
-            return result;
         }
+        if (result==null) {
+            rememberMissingClass(name);
+            throw new ClassNotFoundException(name);
+        }
+        StartupProfile profile = startupProfile;
+        if (profile != null) {
+            profile.classLoaded(name);
+        }
+        if (resolve) {
+            resolveClass(result);
+        }
+        return result;
+    }
+
+    /**
+     * @param name  a class name
+     * @return the class loaded by the bundle, if there is one, or by the parent classloader,
+     *  or null, if neither knows the class
+     */
+    private Class<?> loadFromBundleOrParent(String name) {
         if (bundle!=null) {
-            result=bundle.loadClass(name);
-            if (result!=null) {
-                if (resolve) {
-                    resolveClass(result);
-                }
-                return result;
+            try {
+                return bundle.loadClass(name);
+            } catch (ClassNotFoundException e) {
             }
         }
         try {
-            result = getParent().loadClass(name);
+            return getParent().loadClass(name);
         } catch (ClassNotFoundException e) {
+            return null;
         }
-        if (resolve && result != null) {
-            resolveClass(result);
+    }
+
+    private void rememberMissingClass(String name) {
+        if (missingClasses.size() >= MAX_MISSING_CLASSES) {
+            Iterator<String> names = missingClasses.keySet().iterator();
+            if (names.hasNext()) {
+                names.next();
+                names.remove();
+            }
         }
-        if (result==null) {
-            throw new ClassNotFoundException(name);
-        } else {
-            return result;
+        missingClasses.put(name, Boolean.TRUE);
+    }
+
+    /**
+     * clears the negative cache, if the wiring of any bundle has changed.
+     * It's a separate class, so that OSGi is only required, if a bundle is used.
+     * The framework removes the listener, when the bundle is stopped.
+     * <br/>
+     * The loader is referenced weakly, so that a replaced loader and its
+     * negative cache can be garbage collected while the bundle is running.
+     * The listener removes itself on the next event after that.
+     */
+    private static final class WiringListener implements SynchronousBundleListener {
+
+        private static final int WIRING_CHANGES = BundleEvent.INSTALLED | BundleEvent.RESOLVED | BundleEvent.UNRESOLVED | BundleEvent.UPDATED | BundleEvent.UNINSTALLED;
+
+        private final WeakReference<BridgedClassLoader> loader;
+        private final BundleContext context;
+
+        private WiringListener(BridgedClassLoader loader, BundleContext context) {
+            this.loader = new WeakReference<BridgedClassLoader>(loader);
+            this.context = context;
+        }
+
+        static void register(BridgedClassLoader loader, Bundle bundle) {
+            BundleContext context = bundle.getBundleContext();
+            if (context != null) {
+                context.addBundleListener(new WiringListener(loader, context));
+            }
+        }
+
+        /**
+         * @see org.osgi.framework.BundleListener#bundleChanged(org.osgi.framework.BundleEvent)
+         */
+        @Override
+        public void bundleChanged(BundleEvent event) {
+            BridgedClassLoader currentLoader = loader.get();
+            if (currentLoader == null) {
+                try {
+                    context.removeBundleListener(this);
+                } catch (IllegalStateException e) {
+                    // the bundle has been stopped, which removes the listener anyway
+                }
+                return;
+            }
+            if ((event.getType() & WIRING_CHANGES) != 0) {
+                currentLoader.clearMissingClasses();
+            }
+        }
+    }
+
+    /**
+     * thrown for names found in the negative cache. It doesn't capture
+     * the stack trace, because it's thrown for the very same lookup
+     * again and again.
+     */
+    private static final class MissingClassException extends ClassNotFoundException {
+
+        private static final long serialVersionUID = 1L;
+
+        MissingClassException(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
         }
     }
 }
\ No newline at end of file
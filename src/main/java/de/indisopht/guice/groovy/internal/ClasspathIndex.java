@@ -0,0 +1,481 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Index of all resources in the directories and jars of a classpath,
+ * so that looking up a source or a class doesn't need to probe every
+ * classpath entry.
+ * <br/>
+ * The entries are indexed in parallel. Afterwards an indexed directory
+ * is checked for added or removed files at most once per
+ * {@link #REVALIDATION_INTERVAL} milliseconds, when a resource is looked
+ * up in it, and a jar is read again, if it has been modified. Changing
+ * the content of an indexed file doesn't affect the index.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class ClasspathIndex {
+
+    private static final Logger logger = Logger.getLogger(ClasspathIndex.class);
+
+    /**
+     * minimum time in milliseconds between two checks of the same directory
+     */
+    public static final long REVALIDATION_INTERVAL = 1000;
+
+    /**
+     * Listener for changes of the indexed classpath
+     *
+     * @author Stefan Maassen
+     * @since 0.5.0
+     */
+    public interface ChangeListener {
+
+        /**
+         * called by the thread looking up a resource, after the index has been updated
+         *
+         * @param url   the directory or jar, whose files have been added or removed
+         */
+        void entryChanged(URL url);
+    }
+
+    private final List<IndexedEntry> entries;
+    private volatile ChangeListener changeListener = null;
+
+    private ClasspathIndex(List<IndexedEntry> entries) {
+        super();
+        this.entries = new CopyOnWriteArrayList<IndexedEntry>(entries);
+        for (IndexedEntry currentEntry : entries) {
+            currentEntry.owner = this;
+        }
+    }
+
+    /**
+     * indexes all entries of a classpath in parallel
+     *
+     * @param classpath the directories and jars to index in classpath order
+     * @return the index or null, if an entry can't be indexed, e.g. because it's a remote URL
+     */
+    public static ClasspathIndex create(URL[] classpath) {
+        long start = System.currentTimeMillis();
+        int threads = Math.min(classpath.length, Runtime.getRuntime().availableProcessors());
+        List<IndexedEntry> entries = new ArrayList<IndexedEntry>();
+        if (threads <= 1) {
+            for (URL currentURL : classpath) {
+                IndexedEntry entry = createEntry(currentURL);
+                if (entry == null) {
+                    return null;
+                }
+                entries.add(entry);
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<IndexedEntry>> results = new ArrayList<Future<IndexedEntry>>();
+                for (final URL currentURL : classpath) {
+                    results.add(executor.submit(new Callable<IndexedEntry>() {
+                        public IndexedEntry call() {
+                            return createEntry(currentURL);
+                        }
+                    }));
+                }
+                for (Future<IndexedEntry> currentResult : results) {
+                    IndexedEntry entry = currentResult.get();
+                    if (entry == null) {
+                        return null;
+                    }
+                    entries.add(entry);
+                }
+            } catch (ExecutionException e) {
+                logger.warn("can't index classpath: " + e.getCause().getMessage(), e.getCause());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                executor.shutdown();
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("indexed " + entries.size() + " classpath entries in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return new ClasspathIndex(entries);
+    }
+
+    /**
+     * appends an entry to the indexed classpath
+     *
+     * @param url   a directory or jar added to the classpath
+     * @return false, if url can't be indexed, so that the index must not be used any longer
+     */
+    public boolean add(URL url) {
+        IndexedEntry entry = createEntry(url);
+        if (entry == null) {
+            return false;
+        }
+        entry.owner = this;
+        entries.add(entry);
+        return true;
+    }
+
+    /**
+     * @param changeListener    notified, when files have been added to or removed from 
+     *  an indexed directory or jar; null disables notifications
+     */
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void entryChanged(URL url) {
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.entryChanged(url);
+        }
+    }
+
+    /**
+     * @param name  a '/' separated resource name
+     * @return true, if one of the indexed entries contains the resource
+     */
+    public boolean contains(String name) {
+        for (IndexedEntry currentEntry : entries) {
+            if (currentEntry.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param name  a '/' separated resource name
+     * @return the URL of the resource in the first entry containing it or null, if there is none
+     */
+    public URL getResource(String name) {
+        for (IndexedEntry currentEntry : entries) {
+            if (currentEntry.contains(name)) {
+                try {
+                    return currentEntry.getResource(name);
+                } catch (MalformedURLException e) {
+                    logger.warn("can't create URL for " + name + ": " + e.getMessage());
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static IndexedEntry createEntry(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            logger.debug("can't index " + url);
+            return null;
+        }
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException e) {
+            logger.debug("can't index " + url + ": " + e.getMessage());
+            return null;
+        } catch (IllegalArgumentException e) {
+            logger.debug("can't index " + url + ": " + e.getMessage());
+            return null;
+        }
+        if (url.getPath().endsWith("/")) {
+            return new DirectoryEntry(url, file);
+        }
+        return new JarEntry(url, file);
+    }
+
+    /**
+     * @param name  a '/' separated resource name
+     * @return name with all characters encoded, which aren't allowed in URL paths
+     */
+    private static String encode(String name) throws MalformedURLException {
+        try {
+            return new URI(null, null, name, null).getRawPath();
+        } catch (URISyntaxException e) {
+            throw new MalformedURLException(e.getMessage());
+        }
+    }
+
+    private static Set<String> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * a single directory or jar of the classpath. Like {@link java.net.URLClassLoader}
+     * every URL ending with '/' is treated as directory, every other one as jar.
+     */
+    private static abstract class IndexedEntry {
+
+        protected final URL url;
+        protected final File file;
+        protected volatile ClasspathIndex owner;
+
+        IndexedEntry(URL url, File file) {
+            this.url = url;
+            this.file = file;
+        }
+
+        abstract boolean contains(String name);
+
+        abstract URL getResource(String name) throws MalformedURLException;
+    }
+
+    /**
+     * The indexed files and directories are published as one immutable
+     * snapshot, so that a lookup never sees a directory, while it's
+     * being rescanned. Symbolic links to a directory containing the link
+     * are followed only once, so that they don't send the scan into a loop.
+     */
+    private static final class DirectoryEntry extends IndexedEntry {
+
+        private volatile Snapshot snapshot;
+
+        DirectoryEntry(URL url, File file) {
+            super(url, file);
+            Snapshot initial = new Snapshot();
+            scan("", new HashSet<String>(), initial);
+            snapshot = initial;
+        }
+
+        @Override
+        boolean contains(String name) {
+            validate(name);
+            return snapshot.files.contains(name);
+        }
+
+        @Override
+        URL getResource(String name) throws MalformedURLException {
+            return new URL(url, encode(name));
+        }
+
+        /**
+         * rescans the nearest indexed directory containing name, if it has
+         * been modified. Rescans are published under the lock of the entry
+         * and each of them starts from the snapshot published last, so that
+         * concurrent rescans of different directories don't discard each other.
+         */
+        private void validate(String name) {
+            long now = System.currentTimeMillis();
+            if (now - findDirectory(snapshot, name).getValue().checkedAt < REVALIDATION_INTERVAL) {
+                return;
+            }
+            synchronized (this) {
+                Snapshot current = snapshot;
+                Map.Entry<String, DirectoryState> directory = findDirectory(current, name);
+                DirectoryState state = directory.getValue();
+                if (now - state.checkedAt < REVALIDATION_INTERVAL) {
+                    return;
+                }
+                state.checkedAt = now;
+                if (new File(file, directory.getKey()).lastModified() != state.lastModified) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("reindexing " + directory.getKey() + " in " + file);
+                    }
+                    snapshot = rescan(current, directory.getKey());
+                    owner.entryChanged(url);
+                }
+            }
+        }
+
+        /**
+         * @return the nearest directory containing name, which is indexed in current, and its state
+         */
+        private static Map.Entry<String, DirectoryState> findDirectory(Snapshot current, String name) {
+            String directory = name;
+            DirectoryState state = null;
+            while (state == null) {
+                int separator = directory.lastIndexOf('/', directory.length() - 2);
+                directory = separator < 0 ? "" : directory.substring(0, separator + 1);
+                state = current.directories.get(directory);
+            }
+            return new AbstractMap.SimpleImmutableEntry<String, DirectoryState>(directory, state);
+        }
+
+        /**
+         * @param current   the published snapshot, which isn't modified
+         * @param directory the modified directory
+         * @return a copy of current with directory and all of its subdirectories indexed again
+         */
+        private Snapshot rescan(Snapshot current, String directory) {
+            Snapshot result = new Snapshot();
+            for (String currentName : current.files) {
+                if (!currentName.startsWith(directory)) {
+                    result.files.add(currentName);
+                }
+            }
+            for (Map.Entry<String, DirectoryState> currentDirectory : current.directories.entrySet()) {
+                if (!currentDirectory.getKey().startsWith(directory)) {
+                    result.directories.put(currentDirectory.getKey(), currentDirectory.getValue());
+                }
+            }
+            Set<String> ancestors = new HashSet<String>();
+            for (int separator = directory.indexOf('/'); separator >= 0 && separator < directory.length() - 1; separator = directory.indexOf('/', separator + 1)) {
+                ancestors.add(canonicalPath(new File(file, directory.substring(0, separator + 1))));
+            }
+            ancestors.add(canonicalPath(file));
+            scan(directory, ancestors, result);
+            return result;
+        }
+
+        /**
+         * indexes a directory and all of its subdirectories
+         *
+         * @param directory the directory relative to the root, ending with '/' unless it's the root
+         * @param ancestors canonical paths of all directories containing directory
+         * @param result    the snapshot to add the directories and files to
+         */
+        private void scan(String directory, Set<String> ancestors, Snapshot result) {
+            File current = new File(file, directory);
+            String canonicalPath = canonicalPath(current);
+            if (!directory.equals("") && ancestors.contains(canonicalPath)) {
+                logger.debug("not following " + current + ", it links to a directory containing it");
+                return;
+            }
+            result.directories.put(directory, new DirectoryState(current.lastModified()));
+            File[] children = current.listFiles();
+            if (children == null) {
+                return;
+            }
+            ancestors.add(canonicalPath);
+            for (File currentChild : children) {
+                if (currentChild.isDirectory()) {
+                    scan(directory + currentChild.getName() + "/", ancestors, result);
+                } else {
+                    result.files.add(directory + currentChild.getName());
+                }
+            }
+            ancestors.remove(canonicalPath);
+        }
+
+        private static String canonicalPath(File directory) {
+            try {
+                return directory.getCanonicalPath();
+            } catch (IOException e) {
+                return directory.getAbsolutePath();
+            }
+        }
+    }
+
+    /**
+     * the indexed files and directories of a {@link DirectoryEntry}.
+     * It's only modified, before it's published.
+     */
+    private static final class Snapshot {
+
+        private final Set<String> files = new HashSet<String>();
+        private final Map<String, DirectoryState> directories = new HashMap<String, DirectoryState>();
+    }
+
+    private static final class DirectoryState {
+
+        private final long lastModified;
+        private volatile long checkedAt;
+
+        DirectoryState(long lastModified) {
+            this.lastModified = lastModified;
+            this.checkedAt = System.currentTimeMillis();
+        }
+    }
+
+    private static final class JarEntry extends IndexedEntry {
+
+        private volatile Set<String> names;
+        private volatile long lastModified;
+        private volatile long checkedAt;
+
+        JarEntry(URL url, File file) {
+            super(url, file);
+            read();
+        }
+
+        @Override
+        boolean contains(String name) {
+            long now = System.currentTimeMillis();
+            if (now - checkedAt >= REVALIDATION_INTERVAL) {
+                synchronized (this) {
+                    if (now - checkedAt >= REVALIDATION_INTERVAL) {
+                        checkedAt = now;
+                        if (file.lastModified() != lastModified) {
+                            read();
+                            owner.entryChanged(url);
+                        }
+                    }
+                }
+            }
+            return names.contains(name);
+        }
+
+        @Override
+        URL getResource(String name) throws MalformedURLException {
+            return new URL("jar:" + url.toExternalForm() + "!/" + encode(name));
+        }
+
+        private void read() {
+            Set<String> result = newConcurrentSet();
+            lastModified = file.lastModified();
+            checkedAt = System.currentTimeMillis();
+            if (file.isFile()) {
+                try {
+                    JarFile jar = new JarFile(file);
+                    try {
+                        for (Enumeration<? extends ZipEntry> jarEntries = jar.entries(); jarEntries.hasMoreElements();) {
+                            ZipEntry currentEntry = jarEntries.nextElement();
+                            if (!currentEntry.isDirectory()) {
+                                result.add(currentEntry.getName());
+                            }
+                        }
+                    } finally {
+                        jar.close();
+                    }
+                } catch (IOException e) {
+                    logger.warn("can't index " + file + ": " + e.getMessage());
+                }
+            }
+            names = result;
+        }
+    }
+}
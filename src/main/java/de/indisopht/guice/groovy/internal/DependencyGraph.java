@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Class-to-class dependency graph of compiled Groovy classes.
+ * <br/>
+ * For every compiled class the source it was compiled from, the
+ * digest of that source and the names referenced by its bytecode
+ * are recorded. Only references to classes recorded in this graph
+ * are followed, therefore referencing Java classes costs nothing.
+ * <br/>
+ * Additionally every class remembers the digests of the sources of all
+ * classes it depends on at the time it was compiled. A class is stale,
+ * as soon as one of these sources differs, even if the classes it
+ * depends on have been recompiled in the meantime.
+ * 
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class DependencyGraph {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+
+    private final ConcurrentMap<String, CompiledClass> classes = new ConcurrentHashMap<String, CompiledClass>();
+
+    /**
+     * records a compiled class. A previously recorded class with the
+     * same name is replaced. After all classes compiled together have
+     * been recorded, {@link #link(Collection)} must be called.
+     * 
+     * @param className name of the compiled class
+     * @param source    file name or URL of the source of the class
+     * @param sourceDigest  digest of the compiled source
+     * @param bytecode  the bytecode of the class
+     */
+    public void record(String className, String source, String sourceDigest, byte[] bytecode) {
+        classes.put(className, new CompiledClass(source, sourceDigest, readReferencedNames(bytecode)));
+    }
+
+    /**
+     * records a class defined from cached bytecode. Its sources are known
+     * to be unchanged, so their digests are taken from the cache and
+     * the class doesn't need to be linked.
+     * 
+     * @param className name of the cached class
+     * @param source    file name or URL of the source of the class
+     * @param compiledAgainst   the digests of all sources the class was compiled from and against
+     * @param bytecode  the bytecode of the class
+     */
+    public void recordCached(String className, String source, Map<String, String> compiledAgainst, byte[] bytecode) {
+        CompiledClass compiledClass = new CompiledClass(source, compiledAgainst.get(source), readReferencedNames(bytecode));
+        compiledClass.compiledAgainst = Collections.unmodifiableMap(new LinkedHashMap<String, String>(compiledAgainst));
+        classes.put(className, compiledClass);
+    }
+
+    /**
+     * remembers the digests of the sources the given classes depend on
+     * 
+     * @param classNames    names of classes compiled together
+     */
+    public void link(Collection<String> classNames) {
+        for (String currentName : classNames) {
+            CompiledClass currentClass = classes.get(currentName);
+            if (currentClass != null) {
+                Map<String, String> sourceDigests = new LinkedHashMap<String, String>();
+                for (String currentDependency : getTransitiveDependencies(currentName)) {
+                    CompiledClass dependency = classes.get(currentDependency);
+                    if (dependency != null && !sourceDigests.containsKey(dependency.source)) {
+                        sourceDigests.put(dependency.source, dependency.sourceDigest);
+                    }
+                }
+                currentClass.compiledAgainst = Collections.unmodifiableMap(sourceDigests);
+            }
+        }
+    }
+
+    /**
+     * @param className name of a recorded class
+     * @return the digests of the sources of the class and of all classes it
+     *  depends on, as they were when the class was compiled
+     */
+    public Map<String, String> getCompiledAgainst(String className) {
+        CompiledClass compiledClass = classes.get(className);
+        if (compiledClass == null) {
+            return Collections.emptyMap();
+        }
+        return compiledClass.compiledAgainst;
+    }
+
+    /**
+     * @param className name of a class
+     * @return true, if the class is recorded
+     */
+    public boolean contains(String className) {
+        return classes.containsKey(className);
+    }
+
+    /**
+     * @param className name of a recorded class
+     * @return file name or URL of the source of the class
+     */
+    public String getSource(String className) {
+        return classes.get(className).source;
+    }
+
+    /**
+     * @param className name of a recorded class
+     * @return the names of the class itself and of all recorded classes it depends on directly or indirectly
+     */
+    public Set<String> getTransitiveDependencies(String className) {
+        Set<String> result = new LinkedHashSet<String>();
+        List<String> pending = new ArrayList<String>();
+        pending.add(className);
+        while (!pending.isEmpty()) {
+            String currentName = pending.remove(pending.size() - 1);
+            CompiledClass currentClass = classes.get(currentName);
+            if (currentClass != null && result.add(currentName)) {
+                for (String currentReference : currentClass.referencedNames) {
+                    if (!result.contains(currentReference) && classes.containsKey(currentReference)) {
+                        pending.add(currentReference);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * removes all recorded classes
+     */
+    public void clear() {
+        classes.clear();
+    }
+
+    /**
+     * Groovy doesn't reference classes by class constants only, but
+     * also by their names as string constants. Therefore all strings
+     * of the constant pool and all class names inside of descriptors
+     * are collected.
+     * 
+     * @param bytecode  the bytecode of a class
+     * @return all names, which might reference another class
+     */
+    private static Set<String> readReferencedNames(byte[] bytecode) {
+        Set<String> result = new HashSet<String>();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytecode));
+            in.skipBytes(8);
+            int constantPoolCount = in.readUnsignedShort();
+            for (int i = 1; i < constantPoolCount; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                case CONSTANT_UTF8:
+                    addNames(in.readUTF(), result);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    in.skipBytes(constantSize(tag));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid bytecode: " + e.getMessage(), e);
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    private static int constantSize(int tag) throws IOException {
+        switch (tag) {
+        case 7: // Class
+        case 8: // String
+        case 16: // MethodType
+        case 19: // Module
+        case 20: // Package
+            return 2;
+        case 15: // MethodHandle
+            return 3;
+        case 3: // Integer
+        case 4: // Float
+        case 9: // Fieldref
+        case 10: // Methodref
+        case 11: // InterfaceMethodref
+        case 12: // NameAndType
+        case 17: // Dynamic
+        case 18: // InvokeDynamic
+            return 4;
+        default:
+            throw new IOException("unknown constant pool tag " + tag);
+        }
+    }
+
+    private static void addNames(String constant, Set<String> result) {
+        result.add(constant.replace('/', '.'));
+        int start = constant.indexOf('L');
+        while (start >= 0) {
+            int end = constant.indexOf(';', start);
+            if (end < 0) {
+                break;
+            }
+            result.add(constant.substring(start + 1, end).replace('/', '.'));
+            start = constant.indexOf('L', end);
+        }
+    }
+
+    private static final class CompiledClass {
+
+        private final String source;
+        private final String sourceDigest;
+        private final Set<String> referencedNames;
+        private volatile Map<String, String> compiledAgainst;
+
+        CompiledClass(String source, String sourceDigest, Set<String> referencedNames) {
+            this.source = source;
+            this.sourceDigest = sourceDigest;
+            this.referencedNames = referencedNames;
+            this.compiledAgainst = Collections.singletonMap(source, sourceDigest);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import de.indisopht.guice.groovy.internal.archive.SourceArchive;
+
+/**
+ * Helper for fingerprinting Groovy sources and
+ * compiler settings
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public final class Digests {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Digests() {
+    }
+
+    /**
+     * @param content   the bytes to fingerprint
+     * @return hex encoded SHA-1 digest of content
+     */
+    public static String sha1(byte[] content) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * @param content   the text to fingerprint
+     * @return hex encoded SHA-1 digest of the UTF-8 representation of content
+     */
+    public static String sha1(String content) {
+        try {
+            return sha1(content.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * reads a Groovy source given as file name or as URL
+     *
+     * @param source    a file name or an URL
+     * @return the content of source
+     * @throws IOException  if source can't be read
+     */
+    public static byte[] readSource(String source) throws IOException {
+        if (source.startsWith(SourceArchive.PROTOCOL + ":")) {
+            return readFully(SourceArchive.openStream(source));
+        }
+        if (source.contains(":/")) {
+            return readFully(new URL(source).openStream());
+        }
+        return readFully(new FileInputStream(new File(source)));
+    }
+
+    /**
+     * @param file  the file to read
+     * @return the content of file
+     * @throws IOException  if file can't be read
+     */
+    public static byte[] readFully(File file) throws IOException {
+        return readFully(new FileInputStream(file));
+    }
+
+    /**
+     * reads the given stream completely and closes it afterwards
+     *
+     * @param in    the stream to read
+     * @return all bytes of in
+     * @throws IOException  if in can't be read
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+            return result.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            result[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(result);
+    }
+}
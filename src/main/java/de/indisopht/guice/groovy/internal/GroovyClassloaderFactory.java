@@ -17,20 +17,32 @@
 package de.indisopht.guice.groovy.internal;
 
 import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovySystem;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
+import org.codehaus.groovy.control.CompilerConfiguration;
 import org.osgi.framework.BundleContext;
 
 import com.google.inject.Inject;
 
 import de.indisopht.guice.groovy.GroovyGuice;
+import de.indisopht.guice.groovy.internal.archive.SourceArchive;
+import de.indisopht.guice.groovy.internal.metrics.JmxMetrics;
+import de.indisopht.guice.groovy.internal.cache.BytecodeCache;
+import de.indisopht.guice.groovy.internal.cache.PrecompiledIndex;
+import de.indisopht.guice.groovy.internal.interceptors.RecompilingProxyFactory;
+import de.indisopht.guice.groovy.spi.CompilationMetrics;
 
 /**
  * Configures and creates a suitable GroovyClassLoader
@@ -49,7 +61,19 @@ public class GroovyClassloaderFactory {
     private ClasspathContainer classPath = new ClasspathContainer();
     private BridgedClassLoader bridgedClassloader = null;
     private BundleContext bundleContext = null;
-    private GroovyClassLoader groovyClassLoader = null;
+    private GroovyGuiceClassLoader groovyClassLoader = null;
+    private File bytecodeCacheDirectory = null;
+    private boolean productionMode = false;
+    private int maxInternedSources = 256;
+    private boolean directDispatch = false;
+    private boolean hotSwap = false;
+    private boolean compileOnFirstUse = false;
+    private StartupProfile startupProfile = null;
+    private List<String> staticallyCompiled = new ArrayList<String>();
+    private CompilationMetrics metrics = null;
+    private RecompileConfiguration sourceWatchInterval = null;
+    private SourceWatcher sourceWatcher = null;
+    private final RecompilingProxyFactory proxyFactory = new RecompilingProxyFactory();
 
     public GroovyClassloaderFactory() {
     }
@@ -176,6 +200,211 @@ public class GroovyClassloaderFactory {
         this.bridgedClassloader = bridgedClassloader;
     }
 
+    /**
+     * @return the directory used for caching compiled classes or null, if caching is disabled
+     */
+    public File getBytecodeCacheDirectory() {
+        return bytecodeCacheDirectory;
+    }
+
+    /**
+     * @param bytecodeCacheDirectory the directory used for caching compiled classes; null disables caching
+     * 
+     * @see de.indisopht.guice.groovy.internal.cache.BytecodeCache
+     */
+    public void setBytecodeCacheDirectory(File bytecodeCacheDirectory) {
+        this.bytecodeCacheDirectory = bytecodeCacheDirectory;
+    }
+
+    /**
+     * default: false
+     * 
+     * @return true, if precompiled classes are used without checking their sources
+     */
+    public boolean isProductionMode() {
+        return productionMode;
+    }
+
+    /**
+     * @param productionMode true, if precompiled classes should be used without checking their sources
+     * 
+     * @see de.indisopht.guice.groovy.internal.cache.PrecompiledIndex
+     */
+    public void setProductionMode(boolean productionMode) {
+        this.productionMode = productionMode;
+    }
+
+    /**
+     * default: 256
+     * 
+     * @return the maximum number of classes compiled from inline sources, which are reused
+     */
+    public int getMaxInternedSources() {
+        return maxInternedSources;
+    }
+
+    /**
+     * @param maxInternedSources    the maximum number of classes compiled from inline sources, which should be reused
+     * 
+     * @see GroovyGuiceClassLoader#parseInline(groovy.lang.GroovyCodeSource)
+     */
+    public void setMaxInternedSources(int maxInternedSources) {
+        this.maxInternedSources = maxInternedSources;
+    }
+
+    /**
+     * default: false
+     * 
+     * @return true, if proxies of recompilable classes call their delegate directly
+     */
+    public boolean isDirectDispatch() {
+        return directDispatch;
+    }
+
+    /**
+     * @param directDispatch true, if proxies of recompilable classes should call their delegate directly
+     * 
+     * @see de.indisopht.guice.groovy.internal.interceptors.RecompilingProxyFactory#createDispatchingProxy(Class, de.indisopht.guice.groovy.internal.interceptors.RecompilationInterceptor)
+     */
+    public void setDirectDispatch(boolean directDispatch) {
+        this.directDispatch = directDispatch;
+    }
+
+    /**
+     * default: false
+     * 
+     * @return true, if recompiled classes are redefined in place instead of proxying their instances
+     */
+    public boolean isHotSwap() {
+        return hotSwap;
+    }
+
+    /**
+     * @param hotSwap   true, if recompiled classes should be redefined in place, if the {@link HotSwapAgent} is available
+     */
+    public void setHotSwap(boolean hotSwap) {
+        this.hotSwap = hotSwap;
+    }
+
+    /**
+     * default: false
+     * 
+     * @return true, if a placeholder is provided, which compiles its Groovy class on its first method call
+     */
+    public boolean isCompileOnFirstUse() {
+        return compileOnFirstUse;
+    }
+
+    /**
+     * @param compileOnFirstUse true, if a placeholder should be provided, which compiles its Groovy class
+     *  on its first method call; ignored, if the injector has been created in {@link com.google.inject.Stage#PRODUCTION}
+     */
+    public void setCompileOnFirstUse(boolean compileOnFirstUse) {
+        this.compileOnFirstUse = compileOnFirstUse;
+    }
+
+    /**
+     * default: empty, so that all classes are compiled dynamically
+     * 
+     * @return the names of the classes and packages compiled statically
+     * 
+     * @see StaticCompilationCustomizer
+     */
+    public List<String> getStaticallyCompiled() {
+        return staticallyCompiled;
+    }
+
+    /**
+     * @param staticallyCompiled    the names of the classes and packages to be compiled statically
+     * 
+     * @see StaticCompilationCustomizer
+     */
+    public void setStaticallyCompiled(List<String> staticallyCompiled) {
+        this.staticallyCompiled = staticallyCompiled;
+    }
+
+    /**
+     * @return the factory creating the proxies of the Groovy bindings, which caches their proxy classes
+     */
+    public RecompilingProxyFactory getProxyFactory() {
+        return proxyFactory;
+    }
+
+    /**
+     * @return the profile recording the current startup or null, if startups aren't profiled
+     */
+    public StartupProfile getStartupProfile() {
+        return startupProfile;
+    }
+
+    /**
+     * @param startupProfile    the profile recording the Groovy sources compiled and the classes loaded
+     *  during the current startup; null disables profiling
+     */
+    public void setStartupProfile(StartupProfile startupProfile) {
+        this.startupProfile = startupProfile;
+    }
+
+    /**
+     * @return the receiver of compile and recompile events of all bindings or null, if nothing is measured
+     */
+    public CompilationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics   the receiver of compile and recompile events of all bindings; null disables measuring
+     */
+    public void setMetrics(CompilationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the interval for scanning source files for changes or null, if source files aren't watched
+     */
+    public RecompileConfiguration getSourceWatchInterval() {
+        return sourceWatchInterval;
+    }
+
+    /**
+     * @param sourceWatchInterval the interval for scanning source files for changes; 
+     *  null disables watching, so that sources are checked periodically on method calls
+     * 
+     * @see SourceWatcher
+     */
+    public void setSourceWatchInterval(RecompileConfiguration sourceWatchInterval) {
+        this.sourceWatchInterval = sourceWatchInterval;
+    }
+
+    /**
+     * @return the watcher for the sources on the configured classpath or null, if source files aren't watched
+     */
+    public synchronized SourceWatcher getSourceWatcher() {
+        if (sourceWatcher == null && sourceWatchInterval != null) {
+            sourceWatcher = new SourceWatcher(getClassPath(), sourceWatchInterval);
+        }
+        return sourceWatcher;
+    }
+
+    /**
+     * releases everything, which outlives the injectors using this factory:
+     * the thread of the {@link SourceWatcher} is stopped and the MXBeans
+     * registered by {@link JmxMetrics} are unregistered.
+     * The Groovy bindings of this factory must not be used afterwards.
+     */
+    public void close() {
+        SourceWatcher watcher;
+        synchronized (this) {
+            watcher = sourceWatcher;
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (metrics instanceof JmxMetrics) {
+            ((JmxMetrics) metrics).unregister();
+        }
+    }
+
     /**
      * @return the standard recompilation interval
      */
@@ -186,7 +415,7 @@ public class GroovyClassloaderFactory {
     /**
      * @return preconfigured classloader suitable for the configured environment
      */
-    public GroovyClassLoader createGroovyClassLoader() {
+    public GroovyGuiceClassLoader createGroovyClassLoader() {
         if (groovyClassLoader==null) {
             if (bridgedClassloader == null) {
                 bridgedClassloader = AccessController.doPrivileged(new PrivilegedAction<BridgedClassLoader>() {
@@ -195,14 +424,30 @@ public class GroovyClassloaderFactory {
                     }
                 });
             }
-            groovyClassLoader = AccessController.doPrivileged(new PrivilegedAction<GroovyClassLoader>() {
-                public GroovyClassLoader run() {
-                    return new GroovyClassLoader(bridgedClassloader);
+            final CompilerConfiguration configuration;
+            if (staticallyCompiled.isEmpty()) {
+                configuration = CompilerConfiguration.DEFAULT;
+            } else {
+                configuration = new CompilerConfiguration();
+                configuration.addCompilationCustomizers(new StaticCompilationCustomizer(staticallyCompiled));
+            }
+            groovyClassLoader = AccessController.doPrivileged(new PrivilegedAction<GroovyGuiceClassLoader>() {
+                public GroovyGuiceClassLoader run() {
+                    return new GroovyGuiceClassLoader(bridgedClassloader, configuration);
                 }
             });
             groovyClassLoader.setShouldRecompile(isRecompile());
+            if (startupProfile != null) {
+                bridgedClassloader.setStartupProfile(startupProfile);
+            }
             for (String currentPath : getClassPath()) {
-                if (currentPath.contains(":/")) {
+                if (currentPath.endsWith(SourceArchive.EXTENSION) && new File(currentPath).isFile()) {
+                    try {
+                        groovyClassLoader.addSourceArchive(SourceArchive.open(new File(currentPath)));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("can't add " + currentPath + " to classpath due to " + e.getMessage());
+                    }
+                } else if (currentPath.contains(":/")) {
                     try {
                         groovyClassLoader.addURL(new URL(currentPath));
                     } catch (MalformedURLException e) {
@@ -212,6 +457,19 @@ public class GroovyClassloaderFactory {
                     groovyClassLoader.addClasspath(currentPath);
                 }
             }
+            if (bytecodeCacheDirectory != null) {
+                if (!bytecodeCacheDirectory.isDirectory() && !bytecodeCacheDirectory.mkdirs()) {
+                    throw new IllegalArgumentException("can't use " + bytecodeCacheDirectory + " as bytecode cache");
+                }
+                groovyClassLoader.setBytecodeCache(new BytecodeCache(bytecodeCacheDirectory, createSettingsFingerprint()));
+            }
+            groovyClassLoader.setClasspathIndex(ClasspathIndex.create(groovyClassLoader.getURLs()));
+            PrecompiledIndex precompiledIndex = PrecompiledIndex.load(groovyClassLoader);
+            if (!precompiledIndex.isEmpty()) {
+                groovyClassLoader.setPrecompiledIndex(precompiledIndex);
+            }
+            groovyClassLoader.setProductionMode(productionMode);
+            groovyClassLoader.setMaxInternedSources(maxInternedSources);
             if (logger.isInfoEnabled()) {
                 StringBuilder finalClasspath=new StringBuilder();
                 for (URL currentURL : groovyClassLoader.getURLs()) {
@@ -222,4 +480,30 @@ public class GroovyClassloaderFactory {
         }
         return groovyClassLoader;
     }
+
+    /**
+     * @return the dependency graph of all Groovy classes compiled while recompilation was enabled
+     */
+    public DependencyGraph getDependencyGraph() {
+        return createGroovyClassLoader().getDependencyGraph();
+    }
+
+    /**
+     * @return fingerprint of all settings influencing the bytecode generated for a Groovy source
+     */
+    private String createSettingsFingerprint() {
+        CompilerConfiguration configuration = groovyClassLoader.getConfiguration();
+        StringBuilder result = new StringBuilder();
+        result.append("groovy=").append(GroovySystem.getVersion()).append('\n');
+        result.append("target=").append(configuration.getTargetBytecode()).append('\n');
+        result.append("encoding=").append(configuration.getSourceEncoding()).append('\n');
+        result.append("codeBase=").append(getCodeBase()).append('\n');
+        for (String currentPattern : new TreeSet<String>(staticallyCompiled)) {
+            result.append("static=").append(currentPattern).append('\n');
+        }
+        for (String currentPath : new TreeSet<String>(getClassPath().getClasspath())) {
+            result.append("classpath=").append(currentPath).append('\n');
+        }
+        return Digests.sha1(result.toString());
+    }
 }
\ No newline at end of file
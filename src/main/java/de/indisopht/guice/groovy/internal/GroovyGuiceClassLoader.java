@@ -0,0 +1,1031 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.AccessController;
+import java.security.CodeSource;
+import java.security.PrivilegedAction;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import de.indisopht.guice.groovy.internal.Tracer.Span;
+import de.indisopht.guice.groovy.internal.archive.SourceArchive;
+import de.indisopht.guice.groovy.internal.cache.BytecodeCache;
+import de.indisopht.guice.groovy.internal.cache.BytecodeCache.CacheEntry;
+import de.indisopht.guice.groovy.internal.cache.PrecompiledIndex;
+
+/**
+ * {@link GroovyClassLoader} used by groovy-guice.
+ * <br/>
+ * If a {@link BytecodeCache} is configured, Groovy source files are
+ * compiled only once and the resulting classes are defined from the
+ * cache afterwards, even across restarts of the JVM.
+ * <br/>
+ * Unlike {@link GroovyClassLoader}, different sources are compiled
+ * concurrently.
+ * <br/>
+ * If recompilation is enabled, the {@link DependencyGraph} of all compiled
+ * classes is recorded. A class is considered outdated only if the content
+ * of its source or of the source of a class it depends on differs
+ * from the content it was compiled from, not just because a timestamp
+ * has changed. Outdated dependencies are recompiled together with the
+ * classes depending on them.
+ * <br/>
+ * If a {@link PrecompiledIndex} is configured, sources compiled at build
+ * time are defined from the index instead of being compiled, as long as
+ * their digests match the sources on the classpath. In production mode
+ * the sources aren't read at all.
+ * <br/>
+ * If a {@link ClasspathIndex} is configured, sources and classes on the
+ * classpath of this classloader are looked up in the index instead of
+ * probing every classpath entry.
+ * <br/>
+ * Sources in {@link SourceArchive}s are found after all sources
+ * on the classpath. An archive, whose file has been replaced, is
+ * opened again.
+ * <br/>
+ * Whenever the classpath or a source archive changes, the parent
+ * {@link BridgedClassLoader} forgets the classes it couldn't find.
+ * <br/>
+ * Classes compiled from inline sources by {@link #parseInline(GroovyCodeSource)}
+ * are reused for equal sources. The number of interned classes is bounded;
+ * the least recently used classes are evicted.
+ * <br/>
+ * If the {@link HotSwapAgent} is available, recompiled classes can be
+ * redefined in place by {@link #redefine(GroovyCodeSource)}, as long as
+ * only their method bodies have changed.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class GroovyGuiceClassLoader extends GroovyClassLoader {
+
+    private static final Logger logger = Logger.getLogger(GroovyGuiceClassLoader.class);
+
+    private final CompilerConfiguration configuration;
+    private final ConcurrentMap<String, Class<?>> parsedSources = new ConcurrentHashMap<String, Class<?>>();
+    private final ConcurrentMap<String, Class<?>> precompiledSources = new ConcurrentHashMap<String, Class<?>>();
+    private final Object[] sourceLocks = new Object[64];
+    private final ConcurrentMap<String, Class<?>> precompiledClasses = new ConcurrentHashMap<String, Class<?>>();
+    private final DependencyGraph dependencyGraph = new DependencyGraph();
+    private final ConcurrentMap<File, SourceChangeDetector> sourceDetectors = new ConcurrentHashMap<File, SourceChangeDetector>();
+    private final ConcurrentMap<String, WeakReference<Class<?>>> definedClasses = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+    private BytecodeCache bytecodeCache = null;
+    private PrecompiledIndex precompiledIndex = null;
+    private volatile ClasspathIndex classpathIndex = null;
+    private final List<SourceArchive> sourceArchives = new CopyOnWriteArrayList<SourceArchive>();
+    private boolean productionMode = false;
+    private volatile int maxInternedSources = 256;
+    private final Map<String, Class<?>> internedSources = new LinkedHashMap<String, Class<?>>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+            if (size() <= maxInternedSources) {
+                return false;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("evicting interned class " + eldest.getValue().getName());
+            }
+            removeClassCacheEntry(eldest.getValue().getName());
+            definedClasses.remove(eldest.getValue().getName());
+            return true;
+        }
+    };
+
+    /**
+     * @param parent    the parent classloader
+     * @param configuration the compiler configuration
+     */
+    public GroovyGuiceClassLoader(ClassLoader parent, CompilerConfiguration configuration) {
+        super(parent, configuration);
+        this.configuration = configuration;
+        for (int i = 0; i < sourceLocks.length; i++) {
+            sourceLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the compiler configuration used by this classloader
+     */
+    public CompilerConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return the cache for compiled classes or null, if caching is disabled
+     */
+    public BytecodeCache getBytecodeCache() {
+        return bytecodeCache;
+    }
+
+    /**
+     * @param bytecodeCache the cache for compiled classes; null disables caching
+     */
+    public void setBytecodeCache(BytecodeCache bytecodeCache) {
+        this.bytecodeCache = bytecodeCache;
+    }
+
+    /**
+     * @return the index of precompiled sources or null, if there are none
+     */
+    public PrecompiledIndex getPrecompiledIndex() {
+        return precompiledIndex;
+    }
+
+    /**
+     * @param precompiledIndex  the index of precompiled sources; null disables the use of precompiled classes
+     */
+    public void setPrecompiledIndex(PrecompiledIndex precompiledIndex) {
+        this.precompiledIndex = precompiledIndex;
+    }
+
+    /**
+     * @return the index of the classpath or null, if every classpath entry is probed on lookups
+     */
+    public ClasspathIndex getClasspathIndex() {
+        return classpathIndex;
+    }
+
+    /**
+     * @param classpathIndex    the index of the current classpath; null disables its use
+     */
+    public void setClasspathIndex(ClasspathIndex classpathIndex) {
+        if (classpathIndex != null) {
+            classpathIndex.setChangeListener(new ClasspathIndex.ChangeListener() {
+                @Override
+                public void entryChanged(URL url) {
+                    clearMissingClasses();
+                }
+            });
+        }
+        this.classpathIndex = classpathIndex;
+    }
+
+    /**
+     * lets the parent forget the classes it couldn't find, because
+     * the classpath or a source archive has changed
+     */
+    private void clearMissingClasses() {
+        if (getParent() instanceof BridgedClassLoader) {
+            ((BridgedClassLoader) getParent()).clearMissingClasses();
+        }
+    }
+
+    /**
+     * adds url to the index, too. If it can't be indexed, the index isn't used any longer.
+     * 
+     * @see groovy.lang.GroovyClassLoader#addURL(java.net.URL)
+     */
+    @Override
+    public void addURL(URL url) {
+        super.addURL(url);
+        clearMissingClasses();
+        ClasspathIndex index = classpathIndex;
+        if (index != null && !index.add(url)) {
+            logger.info("not using classpath index any longer, because " + url + " can't be indexed");
+            classpathIndex = null;
+        }
+    }
+
+    /**
+     * @see java.net.URLClassLoader#findResource(java.lang.String)
+     */
+    @Override
+    public URL findResource(String name) {
+        ClasspathIndex index = classpathIndex;
+        URL result = index == null ? super.findResource(name) : index.getResource(name);
+        if (result == null) {
+            for (int i = 0; i < sourceArchives.size(); i++) {
+                result = reopenIfModified(i).getResource(name);
+                if (result != null) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param index the position of an archive in {@link #sourceArchives}
+     * @return the archive, which is replaced, if its file has been replaced
+     */
+    private SourceArchive reopenIfModified(int index) {
+        SourceArchive current = sourceArchives.get(index);
+        try {
+            SourceArchive reopened = current.reopenIfModified();
+            if (reopened != current) {
+                sourceArchives.set(index, reopened);
+                clearMissingClasses();
+            }
+            return reopened;
+        } catch (IOException e) {
+            logger.warn("keeping " + current + ", because its replacement can't be read: " + e.getMessage());
+            return current;
+        }
+    }
+
+    /**
+     * @param archive   an archive, whose sources should be found after the sources on the classpath
+     */
+    public void addSourceArchive(SourceArchive archive) {
+        sourceArchives.add(archive);
+        clearMissingClasses();
+    }
+
+    /**
+     * @return the archives searched for sources
+     */
+    public List<SourceArchive> getSourceArchives() {
+        return sourceArchives;
+    }
+
+    /**
+     * @param source    the URL of a Groovy source, e.g. returned by {@link #getResourceLoader()}
+     * @return the source read from a file, if source is a file URL, or read from the URL otherwise
+     * @throws IOException  if source can't be read
+     */
+    public static GroovyCodeSource createCodeSource(URL source) throws IOException {
+        if ("file".equals(source.getProtocol())) {
+            return new GroovyCodeSource(new File(source.getFile()));
+        }
+        return new GroovyCodeSource(source);
+    }
+
+    /**
+     * fails without probing the classpath, if the class isn't indexed
+     * 
+     * @see java.net.URLClassLoader#findClass(java.lang.String)
+     */
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        ClasspathIndex index = classpathIndex;
+        if (index != null && !index.contains(name.replace('.', '/') + ".class")) {
+            throw new ClassNotFoundException(name);
+        }
+        return super.findClass(name);
+    }
+
+    /**
+     * @return true, if precompiled classes are used without checking their sources
+     */
+    public boolean isProductionMode() {
+        return productionMode;
+    }
+
+    /**
+     * @param productionMode    true, if precompiled classes should be used without checking their sources
+     */
+    public void setProductionMode(boolean productionMode) {
+        this.productionMode = productionMode;
+    }
+
+    /**
+     * returns the class precompiled for somethingGroovy, if it is up to date.
+     * Outside of production mode the digests of all sources the class
+     * was generated from are compared with the sources on the classpath.
+     *
+     * @param somethingGroovy   a Script, a script file name or a fully qualified class name
+     * @return the precompiled class or null, if there is no up to date precompiled class
+     */
+    public Class<?> loadPrecompiled(String somethingGroovy) {
+        if (precompiledIndex == null) {
+            return null;
+        }
+        String sourceName = precompiledIndex.getSourceName(somethingGroovy);
+        if (sourceName == null) {
+            return null;
+        }
+        Class<?> answer = precompiledClasses.get(sourceName);
+        if (answer != null && (productionMode || !isRecompiling())) {
+            return answer;
+        }
+        if (!productionMode && !isUpToDate(sourceName)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("precompiled classes of " + sourceName + " are stale");
+            }
+            return null;
+        }
+        if (answer == null) {
+            try {
+                answer = defineCachedClasses(precompiledIndex.load(sourceName), precompiledIndex.getCodeSource(sourceName));
+            } catch (IOException e) {
+                logger.warn("compiling " + sourceName + ", because its precompiled classes can't be read: " + e.getMessage());
+                return null;
+            }
+            Class<?> concurrentlyDefined = precompiledClasses.putIfAbsent(sourceName, answer);
+            if (concurrentlyDefined != null) {
+                answer = concurrentlyDefined;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * prefers precompiled classes over compiling Groovy source files
+     *
+     * @see groovy.lang.GroovyClassLoader#loadClass(java.lang.String, boolean, boolean, boolean)
+     */
+    @Override
+    public Class loadClass(String name, boolean lookupScriptFiles, boolean preferClassOverScript, boolean resolve) throws ClassNotFoundException, CompilationFailedException {
+        if (lookupScriptFiles && precompiledIndex != null) {
+            Class<?> precompiled = loadPrecompiled(name);
+            if (precompiled != null) {
+                return precompiled;
+            }
+        }
+        return super.loadClass(name, lookupScriptFiles, preferClassOverScript, resolve);
+    }
+
+    /**
+     * @see groovy.lang.GroovyClassLoader#parseClass(groovy.lang.GroovyCodeSource, boolean)
+     */
+    @Override
+    public Class parseClass(GroovyCodeSource codeSource, boolean shouldCacheSource) throws CompilationFailedException {
+        String key = createSourceKey(codeSource);
+        Class<?> answer = parsedSources.get(key);
+        if (answer != null) {
+            return answer;
+        }
+        synchronized (lockFor(key)) {
+            answer = parsedSources.get(key);
+            if (answer == null) {
+                answer = precompiledSources.remove(createPrecompiledKey(codeSource));
+                if (answer == null) {
+                    answer = compileSource(codeSource);
+                }
+                if (shouldCacheSource) {
+                    parsedSources.put(key, answer);
+                }
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * @return the maximum number of classes compiled from inline sources, which are reused
+     */
+    public int getMaxInternedSources() {
+        return maxInternedSources;
+    }
+
+    /**
+     * @param maxInternedSources    the maximum number of classes compiled from inline sources, which should be reused
+     */
+    public void setMaxInternedSources(int maxInternedSources) {
+        this.maxInternedSources = maxInternedSources;
+    }
+
+    /**
+     * same as {@link GroovyClassLoader#parseClass(String)}, but returns the
+     * class compiled before, if the same text has been parsed before
+     *
+     * @see groovy.lang.GroovyClassLoader#parseClass(java.lang.String)
+     */
+    @Override
+    public Class parseClass(final String text) throws CompilationFailedException {
+        GroovyCodeSource codeSource = AccessController.doPrivileged(new PrivilegedAction<GroovyCodeSource>() {
+            public GroovyCodeSource run() {
+                return new GroovyCodeSource(text, generateScriptName(), "/groovy/script");
+            }
+        });
+        return parseInline(codeSource);
+    }
+
+    /**
+     * compiles an inline source, unless a source with the same text and code
+     * base has been compiled before. Unlike parsing inline sources by
+     * {@link #parseClass(GroovyCodeSource, boolean)}, parsing the same text
+     * again doesn't define a new class.
+     *
+     * @param codeSource    a source, which isn't read from a file
+     * @return the class compiled from an equal source
+     * @throws CompilationFailedException   if the source can't be compiled
+     */
+    public Class<?> parseInline(GroovyCodeSource codeSource) throws CompilationFailedException {
+        String key = Digests.sha1(createPrecompiledKey(codeSource));
+        Class<?> answer;
+        synchronized (internedSources) {
+            answer = internedSources.get(key);
+        }
+        if (answer != null) {
+            return answer;
+        }
+        synchronized (lockFor(key)) {
+            synchronized (internedSources) {
+                answer = internedSources.get(key);
+            }
+            if (answer == null) {
+                answer = parseClass(codeSource, false);
+                synchronized (internedSources) {
+                    internedSources.put(key, answer);
+                }
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * compiles the given source in advance. The next call of
+     * {@link #parseClass(GroovyCodeSource, boolean)} for an equal source
+     * returns the precompiled class instead of compiling it again.
+     * <br/>
+     * Sources are compiled under a lock per source, so that different
+     * sources can be compiled concurrently.
+     *
+     * @param codeSource    the source to compile
+     * @throws CompilationFailedException   if the source can't be compiled
+     */
+    public void precompile(GroovyCodeSource codeSource) throws CompilationFailedException {
+        String key = createPrecompiledKey(codeSource);
+        synchronized (lockFor(key)) {
+            if (!parsedSources.containsKey(createSourceKey(codeSource)) && !precompiledSources.containsKey(key)) {
+                precompiledSources.put(key, compileSource(codeSource));
+            }
+        }
+    }
+
+    /**
+     * same as {@link GroovyClassLoader#recompile(URL, String, Class)}, but
+     * without holding a global lock while compiling
+     *
+     * @see groovy.lang.GroovyClassLoader#recompile(java.net.URL, java.lang.String, java.lang.Class)
+     */
+    @Override
+    protected Class recompile(URL source, String className, Class oldClass) throws CompilationFailedException, IOException {
+        if (source != null && (oldClass == null || isSourceNewer(source, oldClass))) {
+            GroovyCodeSource codeSource = null;
+            if ("file".equals(source.getProtocol())) {
+                try {
+                    codeSource = new GroovyCodeSource(new File(source.toURI()), configuration.getSourceEncoding());
+                } catch (URISyntaxException e) {
+                    // fall back to the URL
+                }
+            }
+            if (codeSource == null) {
+                codeSource = new GroovyCodeSource(source);
+            }
+            if (oldClass != null) {
+                invalidateIfStale(oldClass);
+            }
+            parsedSources.remove(createSourceKey(codeSource));
+            return parseClass(codeSource);
+        }
+        return oldClass;
+    }
+
+    /**
+     * compares the digests of the sources of the class and of all classes it
+     * depends on with the digests of the sources the class was compiled from,
+     * if the class is part of the {@link DependencyGraph}. Therefore touching
+     * a source without changing it doesn't cause a recompilation, but changing
+     * a dependency does.
+     *
+     * @see groovy.lang.GroovyClassLoader#isSourceNewer(java.net.URL, java.lang.Class)
+     */
+    @Override
+    protected boolean isSourceNewer(URL source, Class cls) throws IOException {
+        if (!dependencyGraph.contains(cls.getName())) {
+            return super.isSourceNewer(source, cls);
+        }
+        return isStale(cls.getName());
+    }
+
+    /**
+     * compiles the given source again and redefines the previously
+     * compiled classes with the result by the {@link HotSwapAgent}, so
+     * that existing instances and references to the classes stay valid.
+     * <br/>
+     * Nothing is redefined, if the {@link HotSwapAgent} isn't available,
+     * if the source can't be compiled, if it generates a class, which
+     * hasn't been defined by this classloader before, or if the JVM
+     * rejects the new classes, because their shape has changed.
+     *
+     * @param codeSource    the changed source of classes defined by this classloader
+     * @return {@link Redefinition#REDEFINED}, if all classes generated from the source have been redefined,
+     *  {@link Redefinition#NOT_COMPILED}, if the source can't be compiled,
+     *  or {@link Redefinition#REJECTED}, if the classes can't be redefined in place
+     */
+    public Redefinition redefine(GroovyCodeSource codeSource) {
+        if (!HotSwapAgent.isAvailable()) {
+            return Redefinition.REJECTED;
+        }
+        synchronized (lockFor(createSourceKey(codeSource))) {
+            RecordingCollector collector;
+            try {
+                collector = compile(codeSource, false);
+            } catch (CompilationFailedException e) {
+                logger.debug("not redefining classes of " + codeSource.getName() + ": " + e.getMessage());
+                return Redefinition.NOT_COMPILED;
+            }
+            Map<Class<?>, byte[]> definitions = new LinkedHashMap<Class<?>, byte[]>();
+            for (Map.Entry<String, byte[]> currentClass : collector.bytecode.entrySet()) {
+                WeakReference<Class<?>> reference = definedClasses.get(currentClass.getKey());
+                Class<?> definedClass = reference == null ? null : reference.get();
+                if (definedClass == null) {
+                    logger.debug("not redefining classes of " + codeSource.getName() + ", because " + currentClass.getKey() + " is new");
+                    return Redefinition.REJECTED;
+                }
+                definitions.put(definedClass, currentClass.getValue());
+            }
+            if (definitions.isEmpty() || !HotSwapAgent.redefine(definitions)) {
+                return Redefinition.REJECTED;
+            }
+            for (Class<?> currentClass : definitions.keySet()) {
+                setClassCacheEntry(currentClass);
+            }
+            recordDependencies(collector);
+            if (logger.isDebugEnabled()) {
+                logger.debug("redefined " + collector.bytecode.keySet());
+            }
+            return Redefinition.REDEFINED;
+        }
+    }
+
+    /**
+     * @return the dependency graph of all classes compiled while recompilation was enabled
+     */
+    public DependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    /**
+     * checks, whether the given class or one of the classes it depends on
+     * is outdated. All outdated classes are removed from the class cache,
+     * so that they are compiled again, when the given class is recompiled.
+     * Classes unknown to the {@link DependencyGraph} are never considered outdated.
+     *
+     * @param cls   the class to check
+     * @return true, if the class has to be recompiled
+     */
+    public boolean invalidateIfStale(Class<?> cls) {
+        if (!dependencyGraph.contains(cls.getName())) {
+            return false;
+        }
+        boolean result = false;
+        for (String currentDependency : dependencyGraph.getTransitiveDependencies(cls.getName())) {
+            if (isStale(currentDependency)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(currentDependency + " is outdated");
+                }
+                removeClassCacheEntry(currentDependency);
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param className name of a class of the {@link DependencyGraph}
+     * @return true, if one of the sources the class was compiled from has changed
+     */
+    private boolean isStale(String className) {
+        for (Map.Entry<String, String> currentSource : dependencyGraph.getCompiledAgainst(className).entrySet()) {
+            try {
+                if (!currentSource.getValue().equals(digestOf(currentSource.getKey()))) {
+                    return true;
+                }
+            } catch (IOException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @see groovy.lang.GroovyClassLoader#clearCache()
+     */
+    @Override
+    public void clearCache() {
+        synchronized (internedSources) {
+            internedSources.clear();
+        }
+        parsedSources.clear();
+        precompiledSources.clear();
+        precompiledClasses.clear();
+        dependencyGraph.clear();
+        super.clearCache();
+    }
+
+    /**
+     * removes a class from the class cache and releases the metadata Groovy
+     * keeps for it. Groovy references that metadata softly, so a superseded
+     * class would otherwise stay loaded, until the VM clears soft references.
+     * If an instance of the class is still used, the metadata is created again.
+     *
+     * @see groovy.lang.GroovyClassLoader#removeClassCacheEntry(java.lang.String)
+     */
+    @Override
+    protected void removeClassCacheEntry(String name) {
+        Class<?> removed = getClassCacheEntry(name);
+        super.removeClassCacheEntry(name);
+        if (removed != null) {
+            InvokerHelper.removeClass(removed);
+        }
+    }
+
+    private boolean isRecompiling() {
+        Boolean recompile = isShouldRecompile();
+        return recompile == null ? configuration.getRecompileGroovySource() : recompile.booleanValue();
+    }
+
+    /**
+     * @param sourceName    classpath relative name of a precompiled source
+     * @return true, if all sources the precompiled classes were generated from are unchanged
+     */
+    private boolean isUpToDate(String sourceName) {
+        for (Map.Entry<String, String> currentSource : precompiledIndex.getSourceDigests(sourceName).entrySet()) {
+            URL source = getResource(currentSource.getKey());
+            try {
+                if (source == null || !currentSource.getValue().equals(Digests.sha1(Digests.readFully(source.openStream())))) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param source    a file name or an URL
+     * @return the digest of the content of source; the digests of files are
+     *  read again only, if their last modification time or length has changed
+     * @throws IOException  if source can't be read
+     */
+    private String digestOf(String source) throws IOException {
+        File sourceFile = null;
+        if (!source.contains(":/")) {
+            sourceFile = new File(source);
+        } else if (source.startsWith("file:")) {
+            try {
+                sourceFile = new File(new URL(source).toURI());
+            } catch (URISyntaxException e) {
+                // read the URL
+            }
+        }
+        if (sourceFile == null) {
+            return Digests.sha1(Digests.readSource(source));
+        }
+        SourceChangeDetector detector = sourceDetectors.get(sourceFile);
+        if (detector == null) {
+            detector = new SourceChangeDetector(sourceFile);
+            SourceChangeDetector concurrentlyCreated = sourceDetectors.putIfAbsent(sourceFile, detector);
+            if (concurrentlyCreated != null) {
+                detector = concurrentlyCreated;
+            }
+        }
+        String result = detector.getDigest();
+        if (result == null) {
+            throw new IOException("can't read " + source);
+        }
+        return result;
+    }
+
+    private Object lockFor(String key) {
+        return sourceLocks[(key.hashCode() & 0x7fffffff) % sourceLocks.length];
+    }
+
+    /**
+     * @param codeSource    a Groovy source
+     * @return the key used for caching parsed classes
+     */
+    private static String createSourceKey(GroovyCodeSource codeSource) {
+        if (codeSource.getFile() != null) {
+            return codeSource.getFile().getPath();
+        }
+        return codeSource.getName();
+    }
+
+    /**
+     * @param codeSource    a Groovy source
+     * @return a key, which is equal for equal sources, even if inline sources have different generated names
+     */
+    private static String createPrecompiledKey(GroovyCodeSource codeSource) {
+        if (codeSource.getFile() != null) {
+            return codeSource.getFile().getPath();
+        }
+        return "inline:" + codeSource.getCodeSource().getLocation() + "\n" + codeSource.getScriptText();
+    }
+
+    /**
+     * compiles the given source without using any cache
+     *
+     * @param codeSource    the source to compile
+     * @return the compilation result; source digests are keyed by the names of the compiled sources
+     * @throws CompilationFailedException   if the source can't be compiled
+     */
+    public CacheEntry compileToCacheEntry(GroovyCodeSource codeSource) throws CompilationFailedException {
+        return compile(codeSource).toCacheEntry(dependencyGraph);
+    }
+
+    private Class<?> compileSource(GroovyCodeSource codeSource) {
+        if (bytecodeCache == null || codeSource.getFile() == null) {
+            return compile(codeSource).getMainClass();
+        }
+        String key = null;
+        try {
+            key = bytecodeCache.createKey(codeSource.getName(), Digests.readFully(codeSource.getFile()));
+            CacheEntry entry = bytecodeCache.load(key);
+            if (entry != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("defining cached classes for " + codeSource.getName());
+                }
+                Class<?> answer = defineCachedClasses(entry, codeSource.getCodeSource());
+                String source = codeSource.getFile().getPath();
+                if (entry.getSourceDigests().containsKey(source)) {
+                    // classes compiled later against the cached ones must be invalidated by changes of their sources, too
+                    for (Map.Entry<String, byte[]> currentClass : entry.getClasses().entrySet()) {
+                        dependencyGraph.recordCached(currentClass.getKey(), source, entry.getSourceDigests(), currentClass.getValue());
+                    }
+                }
+                return answer;
+            }
+        } catch (IOException e) {
+            logger.warn("bypassing bytecode cache for " + codeSource.getName() + ": " + e.getMessage());
+        }
+        RecordingCollector collector = compile(codeSource);
+        if (key != null) {
+            CacheEntry entry = collector.toCacheEntry(dependencyGraph);
+            if (entry != null) {
+                bytecodeCache.store(key, entry);
+            }
+        }
+        return collector.getMainClass();
+    }
+
+    /**
+     * compiles the given source the same way {@link GroovyClassLoader} does,
+     * but keeps the generated bytecode
+     *
+     * @param codeSource    the source to compile
+     * @return the collector holding the compilation result
+     */
+    private RecordingCollector compile(GroovyCodeSource codeSource) {
+        RecordingCollector collector = compile(codeSource, true);
+        for (Object currentObject : collector.getLoadedClasses()) {
+            Class<?> currentClass = (Class<?>) currentObject;
+            setClassCacheEntry(currentClass);
+            definedClasses.put(currentClass.getName(), new WeakReference<Class<?>>(currentClass));
+        }
+        recordDependencies(collector);
+        return collector;
+    }
+
+    /**
+     * @param codeSource    the source to compile
+     * @param define    false, if the generated bytecode should be kept without defining any class
+     * @return the collector holding the compilation result
+     */
+    private RecordingCollector compile(GroovyCodeSource codeSource, boolean define) {
+        CompilationUnit unit = createCompilationUnit(configuration, codeSource.getCodeSource());
+        SourceUnit su;
+        if (codeSource.getFile() == null) {
+            su = unit.addSource(codeSource.getName(), codeSource.getScriptText());
+        } else {
+            su = unit.addSource(codeSource.getFile());
+        }
+        InnerLoader loader = AccessController.doPrivileged(new PrivilegedAction<InnerLoader>() {
+            public InnerLoader run() {
+                return new InnerLoader(GroovyGuiceClassLoader.this);
+            }
+        });
+        RecordingCollector collector = new RecordingCollector(loader, unit, su, define);
+        unit.setClassgenCallback(collector);
+        Span compilation = Tracer.getInstance().compilation(codeSource.getName());
+        boolean compiled = false;
+        try {
+            unit.compile(Phases.CLASS_GENERATION);
+            compiled = true;
+        } finally {
+            compilation.finish(compiled);
+        }
+        String mainClassName = su.getAST().getMainClassName();
+        for (Object currentObject : collector.getLoadedClasses()) {
+            Class<?> currentClass = (Class<?>) currentObject;
+            if (currentClass.getName().equals(mainClassName)) {
+                collector.mainClass = currentClass;
+            }
+        }
+        return collector;
+    }
+
+    /**
+     * records the compiled classes in the {@link DependencyGraph}, if
+     * classes are recompiled or if cached bytecode has to be invalidated,
+     * when a Groovy class it was compiled against changes
+     */
+    private void recordDependencies(RecordingCollector collector) {
+        if (isRecompiling() || bytecodeCache != null) {
+            for (Map.Entry<String, String> currentClass : collector.classSources.entrySet()) {
+                try {
+                    dependencyGraph.record(currentClass.getKey(), currentClass.getValue(), digestOf(currentClass.getValue()), collector.bytecode.get(currentClass.getKey()));
+                } catch (IOException e) {
+                    logger.debug("not tracking dependencies of " + currentClass.getKey() + ", because its source can't be read");
+                }
+            }
+            dependencyGraph.link(collector.classSources.keySet());
+        }
+    }
+
+    private Class<?> defineCachedClasses(final CacheEntry entry, final CodeSource codeSource) {
+        PreloadingLoader loader = AccessController.doPrivileged(new PrivilegedAction<PreloadingLoader>() {
+            public PreloadingLoader run() {
+                return new PreloadingLoader(GroovyGuiceClassLoader.this, entry.getClasses(), codeSource);
+            }
+        });
+        Class<?> answer = null;
+        for (String currentClassName : entry.getClasses().keySet()) {
+            Class<?> currentClass = loader.define(currentClassName);
+            setClassCacheEntry(currentClass);
+            definedClasses.put(currentClassName, new WeakReference<Class<?>>(currentClass));
+            if (currentClassName.equals(entry.getMainClassName())) {
+                answer = currentClass;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * {@link ClassCollector}, which keeps the bytecode of all
+     * generated classes and defines them, if requested
+     */
+    private static class RecordingCollector extends ClassCollector {
+
+        private final SourceUnit mainSource;
+        private final Map<String, byte[]> bytecode = new LinkedHashMap<String, byte[]>();
+        private final Set<String> sourceNames = new LinkedHashSet<String>();
+        private final Map<String, String> classSources = new HashMap<String, String>();
+        private final boolean define;
+        private Class<?> mainClass = null;
+
+        RecordingCollector(InnerLoader loader, CompilationUnit unit, SourceUnit su, boolean define) {
+            super(loader, unit, su);
+            this.mainSource = su;
+            this.define = define;
+        }
+
+        /**
+         * @see groovy.lang.GroovyClassLoader.ClassCollector#createClass(byte[], org.codehaus.groovy.ast.ClassNode)
+         */
+        @Override
+        protected Class createClass(byte[] code, ClassNode classNode) {
+            Class<?> result = null;
+            if (define) {
+                Span definition = Tracer.getInstance().classDefinition(classNode.getName(), false);
+                try {
+                    result = super.createClass(code, classNode);
+                } finally {
+                    definition.finish(result != null);
+                }
+            }
+            bytecode.put(classNode.getName(), code);
+            ModuleNode module = classNode.getModule();
+            if (module != null && module.getContext() != null) {
+                sourceNames.add(module.getContext().getName());
+                classSources.put(classNode.getName(), module.getContext().getName());
+                if (result != null && mainClass == null && module.getContext() == mainSource && module.getClasses().get(0) == classNode) {
+                    mainClass = result;
+                }
+            }
+            return result;
+        }
+
+        Class<?> getMainClass() {
+            return mainClass;
+        }
+
+        /**
+         * @param dependencyGraph   the graph the compiled classes have been recorded in
+         * @return the compilation result or null, if one of the compiled sources can't be fingerprinted.
+         *  Besides the compiled sources the digests of the sources of all Groovy classes
+         *  loaded before, which the compiled classes depend on, are part of the result.
+         */
+        CacheEntry toCacheEntry(DependencyGraph dependencyGraph) {
+            Map<String, String> sourceDigests = new LinkedHashMap<String, String>();
+            for (String currentSource : sourceNames) {
+                try {
+                    sourceDigests.put(currentSource, Digests.sha1(Digests.readSource(currentSource)));
+                } catch (IOException e) {
+                    logger.debug("not caching compilation result, because " + currentSource + " can't be fingerprinted");
+                    return null;
+                }
+            }
+            for (String currentClass : classSources.keySet()) {
+                for (Map.Entry<String, String> currentSource : dependencyGraph.getCompiledAgainst(currentClass).entrySet()) {
+                    if (!sourceDigests.containsKey(currentSource.getKey())) {
+                        sourceDigests.put(currentSource.getKey(), currentSource.getValue());
+                    }
+                }
+            }
+            return new CacheEntry(mainClass == null ? null : mainClass.getName(), bytecode, sourceDigests);
+        }
+    }
+
+    /**
+     * Classloader, which defines cached classes on demand, so that
+     * cached classes referencing each other are resolved inside the
+     * same loader instead of being recompiled.
+     */
+    private static class PreloadingLoader extends InnerLoader {
+
+        private final Map<String, byte[]> pending;
+        private final CodeSource codeSource;
+
+        PreloadingLoader(GroovyClassLoader delegate, Map<String, byte[]> classes, CodeSource codeSource) {
+            super(delegate);
+            this.pending = new HashMap<String, byte[]>(classes);
+            this.codeSource = codeSource;
+        }
+
+        synchronized Class<?> define(String name) {
+            Class<?> result = findLoadedClass(name);
+            if (result == null) {
+                byte[] code = pending.remove(name);
+                Span definition = Tracer.getInstance().classDefinition(name, true);
+                try {
+                    result = defineClass(name, code, 0, code.length, codeSource);
+                } finally {
+                    definition.finish(result != null);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @see groovy.lang.GroovyClassLoader.InnerLoader#loadClass(java.lang.String, boolean, boolean, boolean)
+         */
+        @Override
+        public Class loadClass(String name, boolean lookupScriptFiles, boolean preferClassOverScript, boolean resolve) throws ClassNotFoundException, CompilationFailedException {
+            synchronized (this) {
+                if (pending.containsKey(name)) {
+                    return define(name);
+                }
+            }
+            return super.loadClass(name, lookupScriptFiles, preferClassOverScript, resolve);
+        }
+    }
+
+    /**
+     * result of {@link GroovyGuiceClassLoader#redefine(GroovyCodeSource)}
+     */
+    public enum Redefinition {
+
+        /**
+         * all classes generated from the source have been redefined
+         */
+        REDEFINED,
+
+        /**
+         * the source can't be compiled; it can be redefined, as soon as it has been fixed
+         */
+        NOT_COMPILED,
+
+        /**
+         * the classes can't be redefined in place, because the JVM rejected
+         * their new shape, the source generates a new class or the
+         * {@link HotSwapAgent} isn't available
+         */
+        REJECTED
+    }
+}
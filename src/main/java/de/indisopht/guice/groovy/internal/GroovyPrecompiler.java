@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import groovy.lang.GroovyCodeSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+import org.codehaus.groovy.control.CompilerConfiguration;
+
+import de.indisopht.guice.groovy.internal.cache.BytecodeCache.CacheEntry;
+import de.indisopht.guice.groovy.internal.cache.PrecompiledIndex;
+
+/**
+ * Compiles all Groovy sources below the given source roots at build
+ * time and writes them as {@link PrecompiledIndex}, so that they
+ * don't need to be compiled at runtime.
+ * <br/>
+ * Usage: <code>GroovyPrecompiler &lt;outputDirectory&gt; &lt;sourceRoot&gt;...</code>
+ * <br/>
+ * The source roots must be the same as the paths given to
+ * {@link de.indisopht.guice.groovy.GroovyGuice.GroovyModuleBuilderInstance#addClasspath(String)}
+ * at runtime. Every source is compiled by its own classloader, so that
+ * its precompiled classes don't depend on the order of compilation.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class GroovyPrecompiler {
+
+    private static final Logger logger = Logger.getLogger(GroovyPrecompiler.class);
+
+    private final List<File> sourceRoots;
+
+    /**
+     * @param sourceRoots   the roots of the Groovy sources to compile
+     */
+    public GroovyPrecompiler(List<File> sourceRoots) {
+        super();
+        this.sourceRoots = sourceRoots;
+    }
+
+    /**
+     * @param args  the output directory followed by the source roots
+     * @throws IOException  if the index can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("usage: " + GroovyPrecompiler.class.getName() + " <outputDirectory> <sourceRoot>...");
+        }
+        List<File> sourceRoots = new ArrayList<File>();
+        for (String currentRoot : Arrays.asList(args).subList(1, args.length)) {
+            sourceRoots.add(new File(currentRoot));
+        }
+        Map<String, CacheEntry> compiled = new GroovyPrecompiler(sourceRoots).compile();
+        PrecompiledIndex.write(new File(args[0]), compiled);
+        logger.info("precompiled " + compiled.size() + " Groovy sources into " + args[0]);
+    }
+
+    /**
+     * @return the compilation results by classpath relative source name
+     * @throws IOException  if a source root can't be read
+     */
+    public Map<String, CacheEntry> compile() throws IOException {
+        List<File> canonicalRoots = new ArrayList<File>();
+        for (File currentRoot : sourceRoots) {
+            canonicalRoots.add(currentRoot.getCanonicalFile());
+        }
+        Map<String, CacheEntry> result = new LinkedHashMap<String, CacheEntry>();
+        for (File currentRoot : canonicalRoots) {
+            List<File> sources = new ArrayList<File>();
+            collectSources(currentRoot, sources);
+            for (File currentSource : sources) {
+                String sourceName = relativize(canonicalRoots, currentSource.getPath());
+                if (result.containsKey(sourceName)) {
+                    continue;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("precompiling " + sourceName);
+                }
+                CacheEntry entry = createClassLoader(canonicalRoots).compileToCacheEntry(new GroovyCodeSource(currentSource));
+                Map<String, String> sourceDigests = entry == null ? null : relativize(canonicalRoots, entry.getSourceDigests());
+                if (sourceDigests == null) {
+                    logger.warn("not precompiling " + sourceName + ", because its sources can't be fingerprinted");
+                } else {
+                    result.put(sourceName, new CacheEntry(entry.getMainClassName(), entry.getClasses(), sourceDigests));
+                }
+            }
+        }
+        return result;
+    }
+
+    private GroovyGuiceClassLoader createClassLoader(List<File> roots) {
+        GroovyGuiceClassLoader result = new GroovyGuiceClassLoader(GroovyPrecompiler.class.getClassLoader(), CompilerConfiguration.DEFAULT);
+        for (File currentRoot : roots) {
+            result.addClasspath(currentRoot.getPath());
+        }
+        return result;
+    }
+
+    private static void collectSources(File directory, List<File> sources) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File currentChild : children) {
+            if (currentChild.isDirectory()) {
+                collectSources(currentChild, sources);
+            } else if (currentChild.getName().endsWith(".groovy")) {
+                sources.add(currentChild);
+            }
+        }
+    }
+
+    /**
+     * @param roots canonical source roots
+     * @param sourceDigests digests by file name or URL of the compiled sources
+     * @return the digests by relative source name or null, if a source isn't located below one of the roots
+     */
+    private static Map<String, String> relativize(List<File> roots, Map<String, String> sourceDigests) throws IOException {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (Entry<String, String> currentSource : sourceDigests.entrySet()) {
+            String sourceName = relativize(roots, currentSource.getKey());
+            if (sourceName == null) {
+                return null;
+            }
+            result.put(sourceName, currentSource.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * @param roots canonical source roots
+     * @param source    a file name or an URL of a compiled source
+     * @return the name of source relative to its root or null, if it's not located below one of the roots
+     */
+    private static String relativize(List<File> roots, String source) throws IOException {
+        File sourceFile;
+        if (source.contains(":/")) {
+            URL sourceURL = new URL(source);
+            if (!"file".equals(sourceURL.getProtocol())) {
+                return null;
+            }
+            try {
+                sourceFile = new File(sourceURL.toURI());
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        } else {
+            sourceFile = new File(source);
+        }
+        String path = sourceFile.getCanonicalPath();
+        for (File currentRoot : roots) {
+            String rootPath = currentRoot.getPath() + File.separator;
+            if (path.startsWith(rootPath)) {
+                return path.substring(rootPath.length()).replace(File.separatorChar, '/');
+            }
+        }
+        return null;
+    }
+}
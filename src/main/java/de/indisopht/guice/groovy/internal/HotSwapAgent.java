@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Java agent redefining recompiled Groovy classes in place, so that
+ * instances of recompilable classes don't need to be proxied.
+ * <br/>
+ * The agent is enabled by starting the JVM with
+ * <code>-javaagent:groovy-guice-&lt;version&gt;.jar</code>. The JVM
+ * loads the agent with the system classloader. If groovy-guice is loaded
+ * by another classloader, e.g. as OSGi bundle, its copy of this class
+ * isn't started, so the instrumentation is looked up in the copy loaded
+ * by the system classloader. Under OSGi that copy is only found, if the
+ * agent jar is on the classpath of the JVM; otherwise hot swapping is
+ * unavailable and recompiled classes are proxied.
+ * <br/>
+ * Only method bodies can be redefined. If a recompiled class adds or
+ * removes fields or methods, changes signatures or its hierarchy, the JVM
+ * rejects the redefinition and the caller has to fall back to loading
+ * the recompiled class as a new class.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public final class HotSwapAgent {
+
+    private static final Logger logger = Logger.getLogger(HotSwapAgent.class);
+
+    /**
+     * prefix of the field Groovy stores the compilation time in. As the
+     * time is part of the name, it's renamed to the name of the field of
+     * the redefined class.
+     */
+    private static final String TIMESTAMP_FIELD_PREFIX = "__timeStamp__239_neverHappen";
+
+    private static volatile Instrumentation instrumentation = null;
+    /**
+     * the field {@link #instrumentation} of the copy of this class loaded
+     * by the system classloader, if that's another copy
+     */
+    private static final Field systemInstrumentation = findSystemInstrumentation();
+
+    private HotSwapAgent() {
+        super();
+    }
+
+    /**
+     * called, if the agent is given on the command line
+     *
+     * @param arguments the agent arguments, which are ignored
+     * @param inst  the instrumentation to redefine classes with
+     */
+    public static void premain(String arguments, Instrumentation inst) {
+        instrumentation = inst;
+    }
+
+    /**
+     * called, if the agent is attached to a running JVM
+     *
+     * @param arguments the agent arguments, which are ignored
+     * @param inst  the instrumentation to redefine classes with
+     */
+    public static void agentmain(String arguments, Instrumentation inst) {
+        instrumentation = inst;
+    }
+
+    /**
+     * @return true, if the agent has been started and the JVM supports redefining classes
+     */
+    public static boolean isAvailable() {
+        Instrumentation inst = getInstrumentation();
+        return inst != null && inst.isRedefineClassesSupported();
+    }
+
+    /**
+     * @return the instrumentation this copy has been started with or else
+     *  the one the copy loaded by the system classloader has been started with
+     */
+    private static Instrumentation getInstrumentation() {
+        Instrumentation inst = instrumentation;
+        if (inst != null || systemInstrumentation == null) {
+            return inst;
+        }
+        try {
+            return (Instrumentation) systemInstrumentation.get(null);
+        } catch (Exception e) {
+            logger.debug("can't read the instrumentation of the agent loaded by the system classloader: " + e);
+            return null;
+        }
+    }
+
+    private static Field findSystemInstrumentation() {
+        try {
+            ClassLoader systemLoader = ClassLoader.getSystemClassLoader();
+            Class<?> systemAgent = Class.forName(HotSwapAgent.class.getName(), false, systemLoader);
+            if (systemAgent == HotSwapAgent.class) {
+                return null;
+            }
+            Field result = systemAgent.getDeclaredField("instrumentation");
+            result.setAccessible(true);
+            logger.info("groovy-guice isn't loaded by the system classloader, so hot swapping uses the agent loaded by the system classloader");
+            return result;
+        } catch (ClassNotFoundException e) {
+            logger.info("groovy-guice isn't loaded by the system classloader and the agent isn't on its classpath, so hot swapping is unavailable");
+        } catch (Exception e) {
+            logger.debug("can't look up the agent loaded by the system classloader: " + e);
+        } catch (LinkageError e) {
+            logger.debug("can't look up the agent loaded by the system classloader: " + e);
+        }
+        return null;
+    }
+
+    /**
+     * redefines all given classes at once or none of them
+     *
+     * @param definitions   the new bytecode by class to redefine
+     * @return true, if the classes have been redefined
+     */
+    public static boolean redefine(Map<Class<?>, byte[]> definitions) {
+        Instrumentation inst = getInstrumentation();
+        if (inst == null || !inst.isRedefineClassesSupported()) {
+            return false;
+        }
+        List<ClassDefinition> classDefinitions = new ArrayList<ClassDefinition>();
+        for (Entry<Class<?>, byte[]> currentDefinition : definitions.entrySet()) {
+            byte[] bytecode = currentDefinition.getValue();
+            String timestampField = findTimestampField(currentDefinition.getKey());
+            if (timestampField != null) {
+                bytecode = renameTimestampField(bytecode, timestampField);
+            }
+            classDefinitions.add(new ClassDefinition(currentDefinition.getKey(), bytecode));
+        }
+        try {
+            inst.redefineClasses(classDefinitions.toArray(new ClassDefinition[classDefinitions.size()]));
+        } catch (Exception e) {
+            logger.debug("can't redefine " + definitions.keySet() + ": " + e);
+            return false;
+        } catch (LinkageError e) {
+            logger.debug("can't redefine " + definitions.keySet() + ": " + e);
+            return false;
+        }
+        for (Class<?> currentClass : definitions.keySet()) {
+            resetCallSites(currentClass);
+        }
+        return true;
+    }
+
+    private static String findTimestampField(Class<?> redefinedClass) {
+        for (Field currentField : redefinedClass.getDeclaredFields()) {
+            if (currentField.getName().startsWith(TIMESTAMP_FIELD_PREFIX)) {
+                return currentField.getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * replaces the name of the timestamp field in the constant pool of
+     * bytecode. Only constants are affected, so the rest of the class
+     * file can be copied unchanged.
+     *
+     * @param bytecode  the class file to rename the field in
+     * @param name  the name the timestamp field gets
+     * @return the class file with the renamed field, or bytecode, if it has no other timestamp field
+     */
+    public static byte[] renameTimestampField(byte[] bytecode, String name) {
+        try {
+            byte[] replacement = name.getBytes("UTF-8");
+            int count = ((bytecode[8] & 0xff) << 8) | (bytecode[9] & 0xff);
+            int offset = 10;
+            for (int i = 1; i < count; i++) {
+                int tag = bytecode[offset] & 0xff;
+                switch (tag) {
+                case 1:
+                    int length = ((bytecode[offset + 1] & 0xff) << 8) | (bytecode[offset + 2] & 0xff);
+                    String value = new String(bytecode, offset + 3, length, "UTF-8");
+                    if (value.startsWith(TIMESTAMP_FIELD_PREFIX) && !value.equals(name)) {
+                        byte[] result = new byte[bytecode.length - length + replacement.length];
+                        System.arraycopy(bytecode, 0, result, 0, offset + 1);
+                        result[offset + 1] = (byte) (replacement.length >> 8);
+                        result[offset + 2] = (byte) replacement.length;
+                        System.arraycopy(replacement, 0, result, offset + 3, replacement.length);
+                        System.arraycopy(bytecode, offset + 3 + length, result, offset + 3 + replacement.length, bytecode.length - offset - 3 - length);
+                        return result;
+                    }
+                    offset += 3 + length;
+                    break;
+                case 5:
+                case 6:
+                    offset += 9;
+                    i++;
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                    offset += 3;
+                    break;
+                case 15:
+                    offset += 4;
+                    break;
+                default:
+                    offset += 5;
+                }
+            }
+            return bytecode;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * lets a redefined Groovy class create its call sites again, because
+     * the cached ones belong to the previous method bodies
+     */
+    private static void resetCallSites(Class<?> redefinedClass) {
+        try {
+            Method swapInit = redefinedClass.getDeclaredMethod("__$swapInit");
+            swapInit.setAccessible(true);
+            swapInit.invoke(null);
+            return;
+        } catch (NoSuchMethodException e) {
+            // reset the call site array only
+        } catch (Exception e) {
+            logger.debug("can't reinitialize " + redefinedClass.getName() + ": " + e);
+        }
+        try {
+            Field callSites = redefinedClass.getDeclaredField("$callSiteArray");
+            callSites.setAccessible(true);
+            callSites.set(null, null);
+        } catch (NoSuchFieldException e) {
+            // no Groovy class
+        } catch (Exception e) {
+            logger.debug("can't reset call sites of " + redefinedClass.getName() + ": " + e);
+        }
+    }
+}
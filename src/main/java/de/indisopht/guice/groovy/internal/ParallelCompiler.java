@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import groovy.lang.GroovyCodeSource;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import com.google.inject.CreationException;
+import com.google.inject.spi.Message;
+
+/**
+ * Compiles Groovy modules and sources concurrently. Failures are
+ * reported all at once in the order the sources were added,
+ * independent of the order in which compilation finished.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class ParallelCompiler {
+
+    private static final Logger logger = Logger.getLogger(ParallelCompiler.class);
+    private static final String DEFAULT_CODEBASE = "/groovy/script";
+
+    private final GroovyGuiceClassLoader groovyLoader;
+    private final String codeBase;
+    private final Set<String> sourceModules = new LinkedHashSet<String>();
+    private final Set<String> sources = new LinkedHashSet<String>();
+
+    /**
+     * @param groovyLoader  the classloader to compile with
+     * @param codeBase  the code base used for inline sources, may be null
+     */
+    public ParallelCompiler(GroovyGuiceClassLoader groovyLoader, String codeBase) {
+        super();
+        this.groovyLoader = groovyLoader;
+        this.codeBase = codeBase;
+    }
+
+    /**
+     * @param className class name of a Groovy source module
+     * @return this
+     */
+    public ParallelCompiler addSourceModule(String className) {
+        sourceModules.add(className);
+        return this;
+    }
+
+    /**
+     * @param somethingGroovy   a Script, a script file name or a fully qualified class name
+     * @return this
+     */
+    public ParallelCompiler addSource(String somethingGroovy) {
+        sources.add(somethingGroovy);
+        return this;
+    }
+
+    /**
+     * compiles all added modules and sources using the given executor
+     *
+     * @param executor  the executor to compile with
+     * @throws CreationException    if at least one source can't be compiled
+     */
+    public void compile(ExecutorService executor) throws CreationException {
+        long start = System.currentTimeMillis();
+        List<String> names = new ArrayList<String>();
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (final String currentModule : sourceModules) {
+            names.add(currentModule);
+            results.add(executor.submit(new Callable<Class<?>>() {
+                public Class<?> call() throws Exception {
+                    return groovyLoader.loadClass(currentModule);
+                }
+            }));
+        }
+        for (final String currentSource : sources) {
+            names.add(currentSource);
+            results.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    compileSource(currentSource);
+                    return null;
+                }
+            }));
+        }
+        List<Message> exceptionMessages = new ArrayList<Message>();
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException e) {
+                exceptionMessages.add(new Message(e.getCause(), "while compiling " + names.get(i) + " :" + e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exceptionMessages.add(new Message(e, "interrupted while compiling " + names.get(i)));
+            }
+        }
+        if (!exceptionMessages.isEmpty()) {
+            throw new CreationException(exceptionMessages);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("compiled " + names.size() + " Groovy sources in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * compiles all added sources in the background using the given
+     * executor without waiting for them. Sources, which can't be compiled,
+     * are skipped, so that their errors are reported, when they're used.
+     *
+     * @param executor  the executor to compile with
+     */
+    public void preload(Executor executor) {
+        for (final String currentSource : sources) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        compileSource(currentSource);
+                    } catch (Exception e) {
+                        logger.debug("not preloading " + currentSource + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    private void compileSource(String somethingGroovy) throws IOException {
+        if (groovyLoader.loadPrecompiled(somethingGroovy) == null) {
+            groovyLoader.precompile(createCodeSource(somethingGroovy));
+        }
+    }
+
+    /**
+     * resolves somethingGroovy the same way {@link de.indisopht.guice.groovy.GroovyProvider} does
+     */
+    private GroovyCodeSource createCodeSource(final String somethingGroovy) throws IOException {
+        URL sourcefileURL = groovyLoader.getResourceLoader().loadGroovySource(somethingGroovy);
+        if (sourcefileURL != null) {
+            return GroovyGuiceClassLoader.createCodeSource(sourcefileURL);
+        }
+        return AccessController.doPrivileged(new PrivilegedAction<GroovyCodeSource>() {
+            public GroovyCodeSource run() {
+                return new GroovyCodeSource(somethingGroovy, groovyLoader.generateScriptName(), codeBase == null ? DEFAULT_CODEBASE : codeBase);
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import de.indisopht.guice.groovy.internal.SourceWatcher.SourceChangeListener;
+
+/**
+ * Timer shared by everything, which checks for changed sources
+ * periodically, if sources aren't watched by a {@link SourceWatcher}.
+ * The timer notifies its listeners once per interval, so that they
+ * only have to set a volatile flag and callers never read the clock.
+ * <br/>
+ * Listeners are referenced weakly, like by a {@link SourceWatcher}.
+ * The task of a listener cancels itself after the listener has been
+ * garbage collected.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public final class RecompilationTimer {
+
+    private static final ScheduledExecutorService timer = createTimer();
+
+    private RecompilationTimer() {
+        super();
+    }
+
+    /**
+     * notifies listener once per interval. The name of the changed
+     * source is null, because every source may have changed.
+     *
+     * @param listener  the listener to notify
+     * @param intervalInMillis  the time between two notifications
+     */
+    public static void schedule(SourceChangeListener listener, long intervalInMillis) {
+        IntervalTask task = new IntervalTask(listener);
+        task.future = timer.scheduleWithFixedDelay(task, intervalInMillis, intervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledExecutorService createTimer() {
+        return new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "groovy-guice recompilation timer");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+    }
+
+    private static final class IntervalTask implements Runnable {
+
+        private final WeakReference<SourceChangeListener> listener;
+        private volatile ScheduledFuture<?> future;
+
+        private IntervalTask(SourceChangeListener listener) {
+            this.listener = new WeakReference<SourceChangeListener>(listener);
+        }
+
+        @Override
+        public void run() {
+            SourceChangeListener currentListener = listener.get();
+            if (currentListener != null) {
+                currentListener.sourceChanged(null);
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
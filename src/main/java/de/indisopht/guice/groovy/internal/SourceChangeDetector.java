@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Detects changes of a single Groovy source file. The last
+ * modification time and the length of the file are compared first;
+ * only if one of them differs, the content is read and its digest is
+ * compared. Therefore rewriting a file with identical content isn't
+ * reported as change.
+ * 
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class SourceChangeDetector {
+
+    private final File source;
+    private long lastModified;
+    private long length;
+    private String digest;
+
+    /**
+     * @param source    the file to check; its current state is the baseline for detecting changes
+     */
+    public SourceChangeDetector(File source) {
+        super();
+        this.source = source;
+        this.lastModified = source.lastModified();
+        this.length = source.length();
+        this.digest = readDigest();
+    }
+
+    /**
+     * @return the checked file
+     */
+    public File getSource() {
+        return source;
+    }
+
+    /**
+     * checks, whether the content of the file has changed since the
+     * last check. Every change is reported once only.
+     * 
+     * @return true, if the content of the file has changed
+     */
+    public synchronized boolean hasChanged() {
+        String previousDigest = digest;
+        return !equal(previousDigest, getDigest());
+    }
+
+    /**
+     * @return the digest of the current content or null, if the file can't be read
+     */
+    public synchronized String getDigest() {
+        long currentLastModified = source.lastModified();
+        long currentLength = source.length();
+        if (currentLastModified != lastModified || currentLength != length) {
+            lastModified = currentLastModified;
+            length = currentLength;
+            digest = readDigest();
+        }
+        return digest;
+    }
+
+    private String readDigest() {
+        try {
+            return Digests.sha1(Digests.readFully(source));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
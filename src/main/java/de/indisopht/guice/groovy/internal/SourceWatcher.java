@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches the Groovy source files in the directories of a
+ * {@link ClasspathContainer} with a single background thread and
+ * notifies all registered listeners, as soon as a source has changed.
+ * Therefore callers never need to check source files themselves.
+ * <br/>
+ * Listeners are referenced weakly, so that registering doesn't
+ * prevent them from being garbage collected. The watching thread runs
+ * until the watcher is closed, which the owning
+ * {@link GroovyClassloaderFactory} does, when it's closed itself.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class SourceWatcher implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(SourceWatcher.class);
+
+    /**
+     * Listener for changed Groovy sources
+     *
+     * @author Stefan Maassen
+     * @since 0.5.0
+     */
+    public interface SourceChangeListener {
+
+        /**
+         * called by the watching thread
+         *
+         * @param sourceName    classpath relative name of the changed source
+         */
+        void sourceChanged(String sourceName);
+    }
+
+    /**
+     * last modification and length of a source file
+     */
+    private static final class FileState {
+
+        private final long lastModified;
+        private final long length;
+
+        FileState(File file) {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) obj;
+            return lastModified == other.lastModified && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (lastModified ^ length);
+        }
+    }
+
+    private final ClasspathContainer classPath;
+    private final RecompileConfiguration pollInterval;
+    private final List<WeakReference<SourceChangeListener>> listeners = new CopyOnWriteArrayList<WeakReference<SourceChangeListener>>();
+    private Map<String, FileState> knownSources = null;
+    private Thread watchingThread = null;
+    private volatile boolean running = false;
+    private boolean closed = false;
+
+    /**
+     * @param classPath the classpath, whose directories should be watched
+     * @param pollInterval  the time between two scans of the directories
+     */
+    public SourceWatcher(ClasspathContainer classPath, RecompileConfiguration pollInterval) {
+        super();
+        this.classPath = classPath;
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * registers a listener and starts watching, if necessary
+     *
+     * @param listener  the listener to notify on changes of any source
+     */
+    public void addListener(SourceChangeListener listener) {
+        listeners.add(new WeakReference<SourceChangeListener>(listener));
+        start();
+    }
+
+    /**
+     * starts the watching thread, if it isn't running yet and the watcher
+     * hasn't been closed. The sources found while starting are the baseline
+     * for detecting changes.
+     */
+    public synchronized void start() {
+        if (closed) {
+            return;
+        }
+        if (running) {
+            return;
+        }
+        knownSources = scan();
+        running = true;
+        watchingThread = new Thread(this, "groovy-guice source watcher");
+        watchingThread.setDaemon(true);
+        watchingThread.start();
+        if (logger.isDebugEnabled()) {
+            logger.debug("watching " + knownSources.size() + " Groovy sources in " + classPath);
+        }
+    }
+
+    /**
+     * stops the watching thread
+     */
+    public synchronized void stop() {
+        running = false;
+        if (watchingThread != null) {
+            watchingThread.interrupt();
+            watchingThread = null;
+        }
+    }
+
+    /**
+     * stops the watching thread for good and waits for it to end.
+     * Listeners aren't notified any longer, even if they're added afterwards.
+     */
+    public void close() {
+        Thread stopped;
+        synchronized (this) {
+            closed = true;
+            stopped = watchingThread;
+            stop();
+        }
+        listeners.clear();
+        if (stopped != null && stopped != Thread.currentThread()) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(pollInterval.getIntervalIn(TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                checkForChanges();
+            } catch (RuntimeException e) {
+                logger.warn("error while watching Groovy sources: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * scans all watched directories once and notifies the listeners
+     * of all sources, which have been changed, added or deleted since
+     * the last scan
+     */
+    void checkForChanges() {
+        Map<String, FileState> currentSources = scan();
+        Set<String> changedSources = new HashSet<String>();
+        for (Entry<String, FileState> currentSource : currentSources.entrySet()) {
+            if (!currentSource.getValue().equals(knownSources.get(currentSource.getKey()))) {
+                changedSources.add(currentSource.getKey());
+            }
+        }
+        for (String currentSource : knownSources.keySet()) {
+            if (!currentSources.containsKey(currentSource)) {
+                changedSources.add(currentSource);
+            }
+        }
+        knownSources = currentSources;
+        for (String currentSource : changedSources) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(currentSource + " has changed");
+            }
+            for (WeakReference<SourceChangeListener> currentReference : listeners) {
+                SourceChangeListener currentListener = currentReference.get();
+                if (currentListener == null) {
+                    listeners.remove(currentReference);
+                } else {
+                    currentListener.sourceChanged(currentSource);
+                }
+            }
+        }
+    }
+
+    private Map<String, FileState> scan() {
+        Map<String, FileState> result = new HashMap<String, FileState>();
+        for (String currentPath : classPath) {
+            if (!currentPath.contains(":/")) {
+                scan(new File(currentPath), "", result);
+            }
+        }
+        return result;
+    }
+
+    private static void scan(File directory, String prefix, Map<String, FileState> result) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File currentChild : children) {
+            if (currentChild.isDirectory()) {
+                scan(currentChild, prefix + currentChild.getName() + "/", result);
+            } else if (currentChild.getName().endsWith(".groovy")) {
+                String sourceName = prefix + currentChild.getName();
+                if (!result.containsKey(sourceName)) {
+                    result.put(sourceName, new FileState(currentChild));
+                }
+            }
+        }
+    }
+}
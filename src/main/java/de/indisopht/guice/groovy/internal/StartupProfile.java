@@ -0,0 +1,328 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import groovy.lang.GroovySystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Profile of a startup, which lists the Groovy sources compiled and
+ * the classes loaded by the {@link BridgedClassLoader} in the order
+ * they were needed.
+ * <br/>
+ * The profile read from a previous startup can be replayed, so that
+ * its sources are compiled and its classes are loaded in the background,
+ * while the {@link com.google.inject.Injector} is created. Meanwhile the
+ * current startup is recorded and written to the same file, when the
+ * JVM shuts down. Therefore the profile follows changes of the
+ * application. Profiles written by another Groovy version are ignored.
+ * <br/>
+ * Only the startup is recorded: recording stops {@link #RECORDING_WINDOW}
+ * milliseconds after the profile has been opened or, if that's earlier,
+ * when {@link #stopRecording()} is called. Recording doesn't take a lock,
+ * so it doesn't serialize class lookups, and after it has stopped, a
+ * lookup only reads a volatile flag.
+ * <br/>
+ * At most one profile per file is open at a time. Opening a file again
+ * closes the profile, which was open for it, so that repeated setups
+ * within one JVM don't pile up recordings and shutdown hooks.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class StartupProfile {
+
+    private static final Logger logger = Logger.getLogger(StartupProfile.class);
+    private static final Map<File, StartupProfile> openProfiles = new ConcurrentHashMap<File, StartupProfile>();
+
+    /**
+     * time in milliseconds after opening a profile, until which the startup is recorded
+     */
+    public static final long RECORDING_WINDOW = 120 * 1000;
+
+    private final File file;
+    private final List<String> replayedSources;
+    private final List<String> replayedClasses;
+    private final Recording recordedSources = new Recording();
+    private final Recording recordedClasses = new Recording();
+    private final long recordingEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECORDING_WINDOW);
+    private volatile boolean recording = true;
+    /**
+     * marks the threads preloading the classes of the profile, so that
+     * classes, which aren't needed any longer, aren't recorded again
+     */
+    private final ThreadLocal<Boolean> replaying = new ThreadLocal<Boolean>();
+    private final Thread shutdownHook = new Thread("groovy-guice startup profile writer") {
+        @Override
+        public void run() {
+            try {
+                write();
+            } catch (IOException e) {
+                logger.warn("can't write startup profile " + file + ": " + e.getMessage());
+            }
+        }
+    };
+
+    private StartupProfile(File file, List<String> replayedSources, List<String> replayedClasses) {
+        super();
+        this.file = file;
+        this.replayedSources = replayedSources;
+        this.replayedClasses = replayedClasses;
+    }
+
+    /**
+     * reads the profile of the previous startup, if there is one, and
+     * writes the profile of the current startup, when the JVM shuts down.
+     * A profile, which is still open for the same file, is closed first,
+     * so that the startup it recorded is the previous one.
+     *
+     * @param file  the file the profile is stored in
+     * @return the profile, which is empty, if file doesn't exist or can't be read
+     */
+    public static synchronized StartupProfile open(File file) {
+        try {
+            file = file.getCanonicalFile();
+        } catch (IOException e) {
+            file = file.getAbsoluteFile();
+        }
+        StartupProfile previous = openProfiles.get(file);
+        if (previous != null) {
+            previous.close();
+        }
+        List<String> sources = new ArrayList<String>();
+        List<String> classes = new ArrayList<String>();
+        if (file.isFile()) {
+            try {
+                read(file, sources, classes);
+            } catch (IOException e) {
+                logger.warn("ignoring unreadable startup profile " + file + ": " + e.getMessage());
+            }
+        }
+        StartupProfile result = new StartupProfile(file, sources, classes);
+        Runtime.getRuntime().addShutdownHook(result.shutdownHook);
+        openProfiles.put(file, result);
+        return result;
+    }
+
+    /**
+     * stops recording, writes the profile recorded so far and doesn't write
+     * it again, when the JVM shuts down. Does nothing, if the profile is
+     * closed already.
+     */
+    public void close() {
+        stopRecording();
+        synchronized (StartupProfile.class) {
+            if (openProfiles.get(file) != this) {
+                return;
+            }
+            openProfiles.remove(file);
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is shutting down, so the hook writes the profile
+            return;
+        }
+        shutdownHook.run();
+    }
+
+    private static void read(File file, List<String> sources, List<String> classes) throws IOException {
+        Properties profile = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            profile.load(in);
+        } finally {
+            in.close();
+        }
+        if (!GroovySystem.getVersion().equals(profile.getProperty("groovy"))) {
+            logger.info("ignoring " + file + ", because it was written by Groovy " + profile.getProperty("groovy"));
+            return;
+        }
+        for (int i = 0; profile.getProperty("source." + i) != null; i++) {
+            sources.add(profile.getProperty("source." + i));
+        }
+        for (int i = 0; profile.getProperty("class." + i) != null; i++) {
+            classes.add(profile.getProperty("class." + i));
+        }
+    }
+
+    /**
+     * writes the profile recorded so far
+     *
+     * @throws IOException  if the profile can't be written
+     */
+    public void write() throws IOException {
+        Properties profile = new Properties();
+        profile.setProperty("groovy", GroovySystem.getVersion());
+        int i = 0;
+        for (String currentSource : recordedSources.names) {
+            profile.setProperty("source." + i++, currentSource);
+        }
+        i = 0;
+        for (String currentClass : recordedClasses.names) {
+            profile.setProperty("class." + i++, currentClass);
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can't create " + directory);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            profile.store(out, "groovy-guice startup profile");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param somethingGroovy   a Script, a script file name or a fully qualified class name,
+     *  which has been compiled
+     */
+    public void sourceCompiled(String somethingGroovy) {
+        if (isRecording()) {
+            recordedSources.add(somethingGroovy);
+        }
+    }
+
+    /**
+     * @param className the name of a class, which has been loaded
+     */
+    public void classLoaded(String className) {
+        if (recording && !recordedClasses.contains(className) && isRecording() && replaying.get() == null) {
+            recordedClasses.add(className);
+        }
+    }
+
+    /**
+     * ends recording the startup. Sources compiled and classes loaded
+     * afterwards aren't added to the profile any longer.
+     */
+    public void stopRecording() {
+        if (recording) {
+            recording = false;
+            if (logger.isDebugEnabled()) {
+                logger.debug("recorded " + recordedSources.names.size() + " sources and " + recordedClasses.names.size() + " classes for " + file);
+            }
+        }
+    }
+
+    /**
+     * @return true, if the startup is still recorded
+     */
+    public boolean isRecording() {
+        if (recording && System.nanoTime() - recordingEnd >= 0) {
+            stopRecording();
+        }
+        return recording;
+    }
+
+    /**
+     * compiles the sources and loads the classes of the previous startup
+     * in the background without waiting for them. Sources and classes,
+     * which can't be loaded any longer, are skipped.
+     *
+     * @param groovyLoader  the classloader to compile with
+     * @param codeBase  the code base used for inline sources, may be null
+     * @param classLoader   the classloader to load the classes with
+     * @param executor  the executor to replay with; the classes are split into a task per thread it's expected to use
+     * @param threads   the number of threads of executor
+     */
+    public void replay(GroovyGuiceClassLoader groovyLoader, String codeBase, final ClassLoader classLoader, Executor executor, int threads) {
+        if (replayedSources.isEmpty() && replayedClasses.isEmpty()) {
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("replaying " + replayedSources.size() + " sources and " + replayedClasses.size() + " classes of " + file);
+        }
+        ParallelCompiler compiler = new ParallelCompiler(groovyLoader, codeBase);
+        for (String currentSource : replayedSources) {
+            compiler.addSource(currentSource);
+        }
+        // classes looked up while compiling are recorded, because they aren't looked up again for the replayed sources
+        compiler.preload(executor);
+        for (int i = 0; i < threads && i < replayedClasses.size(); i++) {
+            final int first = i;
+            final int step = threads;
+            executor.execute(new Runnable() {
+                public void run() {
+                    replaying.set(Boolean.TRUE);
+                    try {
+                        for (int j = first; j < replayedClasses.size(); j += step) {
+                            preload(classLoader, replayedClasses.get(j));
+                        }
+                    } finally {
+                        replaying.remove();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * loads a class without initializing it. Unlike {@link Class#forName(String, boolean, ClassLoader)}
+     * this doesn't register classLoader as initiating loader, so that the class
+     * is looked up and recorded again, when it's needed by the application.
+     */
+    private static void preload(ClassLoader classLoader, String className) {
+        try {
+            classLoader.loadClass(className);
+        } catch (ClassNotFoundException e) {
+            logger.debug("not preloading missing class " + className);
+        } catch (LinkageError e) {
+            logger.debug("not preloading " + className + ": " + e);
+        }
+    }
+
+    /**
+     * names in the order they were recorded first. Names are added
+     * without locking, so the order of names recorded concurrently
+     * is arbitrary.
+     */
+    private static final class Recording {
+
+        private final ConcurrentMap<String, Boolean> recorded = new ConcurrentHashMap<String, Boolean>();
+        private final Queue<String> names = new ConcurrentLinkedQueue<String>();
+
+        boolean contains(String name) {
+            return recorded.containsKey(name);
+        }
+
+        void add(String name) {
+            if (recorded.putIfAbsent(name, Boolean.TRUE) == null) {
+                names.add(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+
+/**
+ * Compiles the Groovy classes matching any of the given patterns
+ * statically, as if they were annotated with <code>@CompileStatic</code>.
+ * <br/>
+ * A pattern is either a fully qualified class name, a package name
+ * followed by <code>.*</code>, which matches all classes of the package
+ * and its subpackages, or <code>*</code>, which matches all classes
+ * including scripts. Inner classes are matched by their outer class.
+ * <br/>
+ * Static compilation requires Groovy 2.0 or later. The annotation is
+ * looked up by name, so that groovy-guice still runs on older versions
+ * as long as nothing is compiled statically.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class StaticCompilationCustomizer extends ASTTransformationCustomizer {
+
+    private static final String COMPILE_STATIC = "groovy.transform.CompileStatic";
+    private static final String ALL_CLASSES = "*";
+    private static final String PACKAGE_SUFFIX = ".*";
+
+    private final List<String> patterns;
+
+    /**
+     * @param patterns  the class names or packages to compile statically
+     */
+    public StaticCompilationCustomizer(Collection<String> patterns) {
+        super(findCompileStatic());
+        this.patterns = new ArrayList<String>(patterns);
+    }
+
+    /**
+     * @return true, if the Groovy version in use is able to compile statically
+     */
+    public static boolean isSupported() {
+        try {
+            findCompileStatic();
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private static Class<? extends Annotation> findCompileStatic() {
+        try {
+            return Class.forName(COMPILE_STATIC, false, ASTTransformationCustomizer.class.getClassLoader()).asSubclass(Annotation.class);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("static compilation requires Groovy 2.0 or later", e);
+        }
+    }
+
+    /**
+     * applies static compilation, if classNode matches any pattern
+     *
+     * @see org.codehaus.groovy.control.customizers.ASTTransformationCustomizer#call(org.codehaus.groovy.control.SourceUnit, org.codehaus.groovy.classgen.GeneratorContext, org.codehaus.groovy.ast.ClassNode)
+     */
+    @Override
+    public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+        if (matches(classNode.getName())) {
+            super.call(source, context, classNode);
+        }
+    }
+
+    /**
+     * @param className a fully qualified class name
+     * @return true, if the class should be compiled statically
+     */
+    boolean matches(String className) {
+        int innerClassStart = className.indexOf('$');
+        String outerClassName = innerClassStart < 0 ? className : className.substring(0, innerClassStart);
+        for (String currentPattern : patterns) {
+            if (currentPattern.equals(ALL_CLASSES) || currentPattern.equals(outerClassName)) {
+                return true;
+            }
+            if (currentPattern.endsWith(PACKAGE_SUFFIX)
+                    && outerClassName.startsWith(currentPattern.substring(0, currentPattern.length() - 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Traces lookups, compilations, class definitions and swaps of
+ * recompiled classes for profilers.
+ * <br/>
+ * If groovy-guice has been built with the <code>jfr</code> profile and
+ * runs on a JVM with Java Flight Recorder, the operations are recorded
+ * as JFR events in the category <code>groovy-guice</code>. Otherwise
+ * nothing is traced. Spans of disabled events aren't created at all.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public abstract class Tracer {
+
+    private static final Logger logger = Logger.getLogger(Tracer.class);
+
+    private static final String JFR_TRACER = "de.indisopht.guice.groovy.internal.jfr.JfrTracer";
+
+    /**
+     * kind of lookups of Groovy sources
+     */
+    public static final String SOURCE = "source";
+
+    /**
+     * kind of lookups of classes
+     */
+    public static final String CLASS = "class";
+
+    /**
+     * a traced operation
+     */
+    public interface Span {
+
+        /**
+         * ends the operation
+         *
+         * @param success   false, if the operation has failed or nothing has been found
+         */
+        void finish(boolean success);
+    }
+
+    /**
+     * span of operations, which aren't traced
+     */
+    protected static final Span NO_SPAN = new Span() {
+        @Override
+        public void finish(boolean success) {
+            // not traced
+        }
+    };
+
+    private static final Tracer instance = load();
+
+    /**
+     * @return the tracer of the JVM
+     */
+    public static Tracer getInstance() {
+        return instance;
+    }
+
+    private static Tracer load() {
+        try {
+            Tracer result = (Tracer) Class.forName(JFR_TRACER, true, Tracer.class.getClassLoader()).newInstance();
+            logger.debug("recording JFR events");
+            return result;
+        } catch (ClassNotFoundException e) {
+            // built without JFR support
+        } catch (Exception e) {
+            logger.debug("not recording JFR events: " + e);
+        } catch (LinkageError e) {
+            logger.debug("not recording JFR events, because JFR isn't available: " + e);
+        }
+        return new Tracer() {
+        };
+    }
+
+    /**
+     * @param kind  {@link #SOURCE} or {@link #CLASS}
+     * @param name  the name of the source or class to look up
+     * @return the span of the lookup, which succeeds, if something has been found
+     */
+    public Span lookup(String kind, String name) {
+        return NO_SPAN;
+    }
+
+    /**
+     * @param sourceName    the name of the source to compile
+     * @return the span of the compilation
+     */
+    public Span compilation(String sourceName) {
+        return NO_SPAN;
+    }
+
+    /**
+     * @param className the name of the class to define
+     * @param cached    true, if the bytecode hasn't been compiled, but taken from a cache
+     * @return the span of the definition
+     */
+    public Span classDefinition(String className, boolean cached) {
+        return NO_SPAN;
+    }
+
+    /**
+     * traces, that a recompiled class has replaced the previous class of a binding
+     *
+     * @param binding   the script, script file name or class name of the binding
+     * @param className the name of the recompiled class
+     * @param generation    the number of classes replaced for the binding so far
+     * @param redefined true, if the class has been redefined in place
+     */
+    public void swapped(String binding, String className, int generation, boolean redefined) {
+        // not traced
+    }
+}
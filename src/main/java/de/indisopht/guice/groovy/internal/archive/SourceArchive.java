@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.archive;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import de.indisopht.guice.groovy.internal.ClasspathIndex;
+
+/**
+ * Read only view of an archive of Groovy sources written by
+ * {@link SourceArchiveWriter}.
+ * <br/>
+ * The archive is mapped into memory once and its file is closed
+ * immediately afterwards, so reading a source neither opens a file nor
+ * copies its content. The directory of the archive is read while
+ * opening, so looking up a source is a single hash lookup.
+ * <br/>
+ * Sources are addressed by URLs like
+ * <code>groovy-archive:/path/to/sources.gsa!/package/Source.groovy</code>.
+ * Those URLs can only be opened, if they were created by
+ * {@link #getResource(String)}, or by {@link #openStream(String)}.
+ * <br/>
+ * An archive is a snapshot: replacing the archive file doesn't change
+ * the sources of an archive, which is already open, nor of the URLs it
+ * created. Opening a replaced file again maps its new content and drops
+ * the old archive, so that its memory is released, as soon as it isn't
+ * used any longer.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public final class SourceArchive {
+
+    public static final String PROTOCOL = "groovy-archive";
+    public static final String EXTENSION = ".gsa";
+
+    static final int MAGIC = 0x47475341;
+    static final int VERSION = 1;
+
+    private static final Logger logger = Logger.getLogger(SourceArchive.class);
+    private static final String SEPARATOR = "!/";
+    private static final ConcurrentMap<String, SourceArchive> openArchives = new ConcurrentHashMap<String, SourceArchive>();
+
+    private final File file;
+    private final String path;
+    private final long lastModified;
+    private final long length;
+    private final ByteBuffer content;
+    private final Map<String, Entry> directory;
+    private final URLStreamHandler handler = new Handler();
+    private volatile long checkedAt = System.currentTimeMillis();
+
+    private SourceArchive(File file, String path, long lastModified, long length, ByteBuffer content, Map<String, Entry> directory) {
+        super();
+        this.file = file;
+        this.path = path;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.content = content;
+        this.directory = directory;
+    }
+
+    /**
+     * maps an archive into memory. An archive, which is already open, is
+     * reused, unless its file has been modified or replaced since.
+     *
+     * @param file  the archive file
+     * @return the archive
+     * @throws IOException  if file can't be read or isn't an archive of Groovy sources
+     */
+    public static SourceArchive open(File file) throws IOException {
+        File canonicalFile = file.getCanonicalFile();
+        String path = canonicalFile.toURI().getPath();
+        long lastModified = file.lastModified();
+        SourceArchive previous = openArchives.get(path);
+        if (previous != null && previous.isCurrent(lastModified, file.length())) {
+            return previous;
+        }
+        RandomAccessFile archiveFile = new RandomAccessFile(file, "r");
+        MappedByteBuffer content;
+        long length;
+        try {
+            length = archiveFile.length();
+            content = archiveFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            archiveFile.close();
+        }
+        SourceArchive result = new SourceArchive(canonicalFile, path, lastModified, length, content, readDirectory(file, content));
+        if (previous == null) {
+            SourceArchive concurrentlyOpened = openArchives.putIfAbsent(path, result);
+            if (concurrentlyOpened != null && concurrentlyOpened.isCurrent(lastModified, length)) {
+                return concurrentlyOpened;
+            }
+        }
+        openArchives.put(path, result);
+        if (logger.isDebugEnabled()) {
+            logger.debug("mapped " + result.directory.size() + " Groovy sources of " + file + (previous == null ? "" : ", replacing the previously opened archive"));
+        }
+        return result;
+    }
+
+    /**
+     * checks at most once per {@link ClasspathIndex#REVALIDATION_INTERVAL}
+     * milliseconds, whether the file of this archive has been modified
+     * or replaced since it was opened
+     *
+     * @return this archive or the archive opened again, if its file has changed
+     * @throws IOException  if the changed file can't be read or isn't an archive of Groovy sources
+     */
+    public SourceArchive reopenIfModified() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - checkedAt < ClasspathIndex.REVALIDATION_INTERVAL) {
+            return this;
+        }
+        checkedAt = now;
+        if (isCurrent(file.lastModified(), file.length())) {
+            return this;
+        }
+        return open(file);
+    }
+
+    /**
+     * @return true, if this archive has been read from a file with the given attributes
+     */
+    private boolean isCurrent(long fileLastModified, long fileLength) {
+        return lastModified == fileLastModified && length == fileLength;
+    }
+
+    private static Map<String, Entry> readDirectory(File file, ByteBuffer content) throws IOException {
+        ByteBuffer header = content.duplicate();
+        try {
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " isn't an archive of Groovy sources");
+            }
+            int size = header.getInt();
+            Map<String, Entry> result = new HashMap<String, Entry>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                byte[] name = new byte[header.getShort() & 0xffff];
+                header.get(name);
+                result.put(new String(name, "UTF-8"), new Entry(header.getInt(), header.getInt()));
+            }
+            int dataStart = header.position();
+            for (Entry currentEntry : result.values()) {
+                currentEntry.offset += dataStart;
+                if (currentEntry.offset + currentEntry.length > content.limit()) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+            return Collections.unmodifiableMap(result);
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is corrupt: " + e);
+        }
+    }
+
+    /**
+     * opens a source of the current content of an archive by its URL
+     *
+     * @param url   the external form of an URL returned by {@link #getResource(String)}
+     * @return the content of the source
+     * @throws IOException  if the archive can't be read or doesn't contain the source
+     */
+    public static InputStream openStream(String url) throws IOException {
+        if (!url.startsWith(PROTOCOL + ":")) {
+            throw new MalformedURLException(url + " doesn't belong to an archive of Groovy sources");
+        }
+        String file = url.substring(PROTOCOL.length() + 1);
+        int separator = file.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new MalformedURLException(url + " doesn't name a source");
+        }
+        return open(new File(file.substring(0, separator))).openStream(file, url);
+    }
+
+    private InputStream openStream(String file, String url) throws IOException {
+        int separator = file.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new MalformedURLException(url + " doesn't name a source");
+        }
+        ByteBuffer source = getContent(file.substring(separator + SEPARATOR.length()));
+        if (source == null) {
+            throw new FileNotFoundException(url);
+        }
+        return new ByteBufferInputStream(source);
+    }
+
+    /**
+     * @return the names of all sources in this archive
+     */
+    public Set<String> getNames() {
+        return directory.keySet();
+    }
+
+    /**
+     * @param name  the '/' separated name of a source
+     * @return true, if this archive contains the source
+     */
+    public boolean contains(String name) {
+        return directory.containsKey(name);
+    }
+
+    /**
+     * @param name  the '/' separated name of a source
+     * @return a read only view of the content of the source or null, if this archive doesn't contain it
+     */
+    public ByteBuffer getContent(String name) {
+        Entry entry = directory.get(name);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer result = content.duplicate();
+        result.limit(entry.offset + entry.length).position(entry.offset);
+        return result.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @param name  the '/' separated name of a source
+     * @return the URL of the source or null, if this archive doesn't contain it
+     */
+    public URL getResource(final String name) {
+        if (!contains(name)) {
+            return null;
+        }
+        try {
+            return AccessController.doPrivileged(new PrivilegedExceptionAction<URL>() {
+                public URL run() throws MalformedURLException {
+                    return new URL(PROTOCOL, null, -1, path + SEPARATOR + name, handler);
+                }
+            });
+        } catch (PrivilegedActionException e) {
+            logger.warn("can't create URL for " + name + ": " + e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return PROTOCOL + ":" + path;
+    }
+
+    /**
+     * position of a source in the archive
+     */
+    private static final class Entry {
+
+        private int offset;
+        private final int length;
+
+        Entry(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * opens URLs created by {@link SourceArchive#getResource(String)}
+     * from the archive, which created them
+     */
+    private final class Handler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(final URL u) throws IOException {
+            return new URLConnection(u) {
+
+                private InputStream in = null;
+
+                @Override
+                public void connect() throws IOException {
+                    if (in == null) {
+                        in = openStream(u.getFile(), u.toExternalForm());
+                        connected = true;
+                    }
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    connect();
+                    return in;
+                }
+
+                @Override
+                public int getContentLength() {
+                    try {
+                        connect();
+                        return in.available();
+                    } catch (IOException e) {
+                        return -1;
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * reads a buffer without copying it first
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import de.indisopht.guice.groovy.internal.Digests;
+
+/**
+ * Writes all Groovy sources below the given source roots into a single
+ * {@link SourceArchive}, which can be added to the classpath instead of
+ * the source roots.
+ * <br/>
+ * Usage: <code>SourceArchiveWriter &lt;archive&gt; &lt;sourceRoot&gt;...</code>
+ * <br/>
+ * The archive is written to a temporary file first and renamed
+ * afterwards, so that it's replaced at once. If a source exists below
+ * more than one root, the first one wins like on the classpath.
+ * <br/>
+ * Format: magic, version and number of sources as int, followed by the
+ * directory of UTF-8 name, offset and length of every source, followed
+ * by the contents of all sources.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class SourceArchiveWriter {
+
+    private static final Logger logger = Logger.getLogger(SourceArchiveWriter.class);
+
+    private final Map<String, File> sources = new LinkedHashMap<String, File>();
+
+    /**
+     * @param args  the archive file followed by the source roots
+     * @throws IOException  if a source can't be read or the archive can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("usage: " + SourceArchiveWriter.class.getName() + " <archive> <sourceRoot>...");
+        }
+        SourceArchiveWriter writer = new SourceArchiveWriter();
+        for (String currentRoot : Arrays.asList(args).subList(1, args.length)) {
+            writer.addSourceRoot(new File(currentRoot));
+        }
+        writer.write(new File(args[0]));
+        logger.info("archived " + writer.sources.size() + " Groovy sources into " + args[0]);
+    }
+
+    /**
+     * adds all Groovy sources below root, which haven't been added yet
+     *
+     * @param root  the root of the Groovy sources to archive
+     * @return this
+     */
+    public SourceArchiveWriter addSourceRoot(File root) {
+        collectSources(root, "");
+        return this;
+    }
+
+    private void collectSources(File directory, String prefix) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File currentChild : children) {
+            if (currentChild.isDirectory()) {
+                collectSources(currentChild, prefix + currentChild.getName() + "/");
+            } else if (currentChild.getName().endsWith(".groovy") && !sources.containsKey(prefix + currentChild.getName())) {
+                sources.put(prefix + currentChild.getName(), currentChild);
+            }
+        }
+    }
+
+    /**
+     * @param archive   the file to write the archive to
+     * @throws IOException  if a source can't be read or the archive can't be written
+     */
+    public void write(File archive) throws IOException {
+        Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+        for (Entry<String, File> currentSource : sources.entrySet()) {
+            contents.put(currentSource.getKey(), Digests.readFully(currentSource.getValue()));
+        }
+        File temporary = File.createTempFile(archive.getName(), ".tmp", archive.getAbsoluteFile().getParentFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(SourceArchive.MAGIC);
+            out.writeInt(SourceArchive.VERSION);
+            out.writeInt(contents.size());
+            int offset = 0;
+            for (Entry<String, byte[]> currentSource : contents.entrySet()) {
+                byte[] name = currentSource.getKey().getBytes("UTF-8");
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(offset);
+                out.writeInt(currentSource.getValue().length);
+                offset += currentSource.getValue().length;
+            }
+            for (byte[] currentContent : contents.values()) {
+                out.write(currentContent);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(archive) && !(archive.delete() && temporary.renameTo(archive))) {
+            temporary.delete();
+            throw new IOException("can't replace " + archive);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import de.indisopht.guice.groovy.internal.Digests;
+
+/**
+ * Persistent cache for the bytecode of compiled Groovy sources.
+ * <br/>
+ * Every compilation result is stored in its own directory named
+ * after a key, which is built from the content of the compiled source,
+ * the compiler settings and the classpath. Additionally, the digests of
+ * all Groovy sources compiled together with the main source are
+ * recorded, so that an entry becomes stale as soon as one of its
+ * Groovy dependencies changes.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class BytecodeCache {
+
+    private static final Logger logger = Logger.getLogger(BytecodeCache.class);
+    private static final String ENTRY_DESCRIPTOR = "entry.properties";
+    private static final String FORMAT_VERSION = "1";
+
+    private final File directory;
+    private final String settingsFingerprint;
+
+    /**
+     * @param directory the directory to store compiled classes in
+     * @param settingsFingerprint   fingerprint of compiler settings and classpath
+     */
+    public BytecodeCache(File directory, String settingsFingerprint) {
+        super();
+        this.directory = directory;
+        this.settingsFingerprint = settingsFingerprint;
+    }
+
+    /**
+     * @return the directory compiled classes are stored in
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param sourceName    name of the compiled source
+     * @param sourceContent content of the compiled source
+     * @return the key to be used for {@link #load(String)} and {@link #store(String, CacheEntry)}
+     */
+    public String createKey(String sourceName, byte[] sourceContent) {
+        return Digests.sha1(FORMAT_VERSION + "\n" + settingsFingerprint + "\n" + sourceName + "\n" + Digests.sha1(sourceContent));
+    }
+
+    /**
+     * loads a previously stored entry
+     *
+     * @param key   the key of the entry
+     * @return the entry or null, if there is no entry or if the entry is stale
+     */
+    public CacheEntry load(String key) {
+        File entryDirectory = new File(directory, key);
+        File descriptorFile = new File(entryDirectory, ENTRY_DESCRIPTOR);
+        if (!descriptorFile.isFile()) {
+            return null;
+        }
+        try {
+            Properties descriptor = new Properties();
+            InputStream in = new FileInputStream(descriptorFile);
+            try {
+                descriptor.load(in);
+            } finally {
+                in.close();
+            }
+            Map<String, String> sourceDigests = new LinkedHashMap<String, String>();
+            for (int i = 0; descriptor.getProperty("source." + i) != null; i++) {
+                String source = descriptor.getProperty("source." + i);
+                String digest = descriptor.getProperty("digest." + i);
+                if (!digest.equals(Digests.sha1(Digests.readSource(source)))) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("cached bytecode " + key + " is stale, because " + source + " has changed");
+                    }
+                    return null;
+                }
+                sourceDigests.put(source, digest);
+            }
+            Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+            for (int i = 0; descriptor.getProperty("class." + i) != null; i++) {
+                String className = descriptor.getProperty("class." + i);
+                classes.put(className, Digests.readFully(new File(entryDirectory, className + ".class")));
+            }
+            return new CacheEntry(descriptor.getProperty("main"), classes, sourceDigests);
+        } catch (IOException e) {
+            logger.warn("ignoring unreadable cache entry " + entryDirectory + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * stores the given entry. Errors are logged only, because
+     * a failing cache must never break compilation.
+     *
+     * @param key   the key of the entry
+     * @param entry the entry to store
+     */
+    public void store(String key, CacheEntry entry) {
+        File entryDirectory = new File(directory, key);
+        File tmpDirectory = new File(directory, key + ".tmp" + System.nanoTime());
+        try {
+            if (!tmpDirectory.mkdirs()) {
+                throw new IOException("can't create " + tmpDirectory);
+            }
+            Properties descriptor = new Properties();
+            if (entry.getMainClassName() != null) {
+                descriptor.setProperty("main", entry.getMainClassName());
+            }
+            int i = 0;
+            for (Entry<String, byte[]> currentClass : entry.getClasses().entrySet()) {
+                descriptor.setProperty("class." + i++, currentClass.getKey());
+                write(new File(tmpDirectory, currentClass.getKey() + ".class"), currentClass.getValue());
+            }
+            i = 0;
+            for (Entry<String, String> currentSource : entry.getSourceDigests().entrySet()) {
+                descriptor.setProperty("source." + i, currentSource.getKey());
+                descriptor.setProperty("digest." + i++, currentSource.getValue());
+            }
+            OutputStream out = new FileOutputStream(new File(tmpDirectory, ENTRY_DESCRIPTOR));
+            try {
+                descriptor.store(out, "groovy-guice bytecode cache");
+            } finally {
+                out.close();
+            }
+            if (!tmpDirectory.renameTo(entryDirectory)) {
+                // another thread or process was faster
+                delete(tmpDirectory);
+            }
+        } catch (IOException e) {
+            logger.warn("can't store compiled classes in " + entryDirectory + ": " + e.getMessage());
+            delete(tmpDirectory);
+        }
+    }
+
+    private static void write(File target, byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File currentChild : children) {
+                delete(currentChild);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Result of a single compilation
+     *
+     * @author Stefan Maassen
+     * @since 0.5.0
+     */
+    public static final class CacheEntry {
+
+        private final String mainClassName;
+        private final Map<String, byte[]> classes;
+        private final Map<String, String> sourceDigests;
+
+        /**
+         * @param mainClassName the class generated for the compiled source
+         * @param classes   bytecode of all generated classes in definition order
+         * @param sourceDigests digests of all Groovy sources the classes were generated from
+         */
+        public CacheEntry(String mainClassName, Map<String, byte[]> classes, Map<String, String> sourceDigests) {
+            super();
+            this.mainClassName = mainClassName;
+            this.classes = Collections.unmodifiableMap(classes);
+            this.sourceDigests = Collections.unmodifiableMap(sourceDigests);
+        }
+
+        public String getMainClassName() {
+            return mainClassName;
+        }
+
+        public Map<String, byte[]> getClasses() {
+            return classes;
+        }
+
+        public Map<String, String> getSourceDigests() {
+            return sourceDigests;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.cache;
+
+import groovy.lang.GroovySystem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import de.indisopht.guice.groovy.internal.Digests;
+import de.indisopht.guice.groovy.internal.cache.BytecodeCache.CacheEntry;
+
+/**
+ * Index of Groovy sources compiled at build time and shipped
+ * inside an artifact.
+ * <br/>
+ * The index is stored at {@link #INDEX_LOCATION} and maps the
+ * classpath relative name of every precompiled source to the
+ * generated classes and to the digests of all Groovy sources they
+ * were generated from. The bytecode is stored below
+ * {@link #CLASSES_LOCATION}, so that precompiled classes never shadow
+ * the sources on the regular classpath.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class PrecompiledIndex {
+
+    public static final String INDEX_LOCATION = "META-INF/groovy-guice/precompiled.index";
+    public static final String CLASSES_LOCATION = "META-INF/groovy-guice/classes/";
+
+    private static final Logger logger = Logger.getLogger(PrecompiledIndex.class);
+    private static final String SOURCE_EXTENSION = ".groovy";
+
+    private final Map<String, IndexEntry> entries;
+    private final Map<String, String> sourceNamesByClass;
+
+    private PrecompiledIndex(Map<String, IndexEntry> entries) {
+        super();
+        this.entries = entries;
+        this.sourceNamesByClass = new HashMap<String, String>(entries.size() * 4 / 3 + 1);
+        for (String currentSource : entries.keySet()) {
+            if (currentSource.endsWith(SOURCE_EXTENSION)) {
+                sourceNamesByClass.put(currentSource.substring(0, currentSource.length() - SOURCE_EXTENSION.length()).replace('/', '.'), currentSource);
+            }
+        }
+    }
+
+    /**
+     * reads all indexes visible to the given classloader. If a source is
+     * listed in more than one index, the first one found wins. Indexes
+     * written by another Groovy version are ignored.
+     *
+     * @param loader    the classloader to search
+     * @return the merged index, which is empty, if no usable index exists
+     */
+    public static PrecompiledIndex load(ClassLoader loader) {
+        Map<String, IndexEntry> entries = new HashMap<String, IndexEntry>();
+        try {
+            Enumeration<URL> indexes = loader.getResources(INDEX_LOCATION);
+            while (indexes.hasMoreElements()) {
+                URL currentIndex = indexes.nextElement();
+                try {
+                    read(currentIndex, entries);
+                } catch (IOException e) {
+                    logger.warn("ignoring unreadable index " + currentIndex + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("can't search for precompiled Groovy sources: " + e.getMessage());
+        }
+        if (logger.isDebugEnabled() && !entries.isEmpty()) {
+            logger.debug("found " + entries.size() + " precompiled Groovy sources");
+        }
+        return new PrecompiledIndex(entries);
+    }
+
+    private static void read(URL indexURL, Map<String, IndexEntry> entries) throws IOException {
+        Properties index = new Properties();
+        InputStream in = indexURL.openStream();
+        try {
+            index.load(in);
+        } finally {
+            in.close();
+        }
+        if (!GroovySystem.getVersion().equals(index.getProperty("groovy"))) {
+            logger.warn("ignoring " + indexURL + ", because it was written by Groovy " + index.getProperty("groovy"));
+            return;
+        }
+        CodeSource codeSource = new CodeSource(indexURL, (Certificate[]) null);
+        for (int i = 0; index.getProperty("source." + i) != null; i++) {
+            String source = index.getProperty("source." + i);
+            if (entries.containsKey(source)) {
+                continue;
+            }
+            List<URL> classFiles = new ArrayList<URL>();
+            List<String> classNames = new ArrayList<String>();
+            for (int j = 0; index.getProperty("class." + i + "." + j) != null; j++) {
+                String className = index.getProperty("class." + i + "." + j);
+                classNames.add(className);
+                classFiles.add(new URL(indexURL, "classes/" + className + ".class"));
+            }
+            Map<String, String> sourceDigests = new LinkedHashMap<String, String>();
+            for (int j = 0; index.getProperty("dependency." + i + "." + j) != null; j++) {
+                sourceDigests.put(index.getProperty("dependency." + i + "." + j), index.getProperty("digest." + i + "." + j));
+            }
+            entries.put(source, new IndexEntry(index.getProperty("main." + i), classNames, classFiles, sourceDigests, codeSource));
+        }
+    }
+
+    /**
+     * writes the given compilation results, so that they can be read by
+     * {@link #load(ClassLoader)}, if outputDirectory is part of the classpath
+     *
+     * @param outputDirectory   the root directory of the index
+     * @param compiled  compilation results by classpath relative source name;
+     *  the source digests must use classpath relative names, too
+     * @throws IOException  if the index can't be written
+     */
+    public static void write(File outputDirectory, Map<String, CacheEntry> compiled) throws IOException {
+        File classesDirectory = new File(outputDirectory, CLASSES_LOCATION);
+        if (!classesDirectory.isDirectory() && !classesDirectory.mkdirs()) {
+            throw new IOException("can't create " + classesDirectory);
+        }
+        Properties index = new Properties();
+        index.setProperty("groovy", GroovySystem.getVersion());
+        int i = 0;
+        for (Entry<String, CacheEntry> currentSource : compiled.entrySet()) {
+            CacheEntry entry = currentSource.getValue();
+            index.setProperty("source." + i, currentSource.getKey());
+            if (entry.getMainClassName() != null) {
+                index.setProperty("main." + i, entry.getMainClassName());
+            }
+            int j = 0;
+            for (Entry<String, byte[]> currentClass : entry.getClasses().entrySet()) {
+                index.setProperty("class." + i + "." + j++, currentClass.getKey());
+                OutputStream out = new FileOutputStream(new File(classesDirectory, currentClass.getKey() + ".class"));
+                try {
+                    out.write(currentClass.getValue());
+                } finally {
+                    out.close();
+                }
+            }
+            j = 0;
+            for (Entry<String, String> currentDependency : entry.getSourceDigests().entrySet()) {
+                index.setProperty("dependency." + i + "." + j, currentDependency.getKey());
+                index.setProperty("digest." + i + "." + j++, currentDependency.getValue());
+            }
+            i++;
+        }
+        OutputStream out = new FileOutputStream(new File(outputDirectory, INDEX_LOCATION));
+        try {
+            index.store(out, "groovy-guice precompiled sources");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * looks up the source of a class without creating any objects,
+     * because it's asked for every class the Groovy classloader loads,
+     * including JDK and Guice classes
+     *
+     * @param somethingGroovy   a script file name or a fully qualified class name
+     * @return the classpath relative name of the precompiled source file or null, if it isn't precompiled
+     */
+    public String getSourceName(String somethingGroovy) {
+        return sourceNamesByClass.get(somethingGroovy);
+    }
+
+    /**
+     * @return true, if no source is precompiled
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @param sourceName    classpath relative name of a source file
+     * @return true, if the source is precompiled
+     */
+    public boolean contains(String sourceName) {
+        return entries.containsKey(sourceName);
+    }
+
+    /**
+     * @param sourceName    classpath relative name of a precompiled source file
+     * @return digests of all sources the precompiled classes were generated from
+     */
+    public Map<String, String> getSourceDigests(String sourceName) {
+        return entries.get(sourceName).sourceDigests;
+    }
+
+    /**
+     * @param sourceName    classpath relative name of a precompiled source file
+     * @return the code source to define the precompiled classes with
+     */
+    public CodeSource getCodeSource(String sourceName) {
+        return entries.get(sourceName).codeSource;
+    }
+
+    /**
+     * reads the bytecode of a precompiled source
+     *
+     * @param sourceName    classpath relative name of a precompiled source file
+     * @return the precompiled classes
+     * @throws IOException  if the bytecode can't be read
+     */
+    public CacheEntry load(String sourceName) throws IOException {
+        IndexEntry entry = entries.get(sourceName);
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < entry.classNames.size(); i++) {
+            classes.put(entry.classNames.get(i), Digests.readFully(entry.classFiles.get(i).openStream()));
+        }
+        return new CacheEntry(entry.mainClassName, classes, entry.sourceDigests);
+    }
+
+    private static final class IndexEntry {
+
+        private final String mainClassName;
+        private final List<String> classNames;
+        private final List<URL> classFiles;
+        private final Map<String, String> sourceDigests;
+        private final CodeSource codeSource;
+
+        IndexEntry(String mainClassName, List<String> classNames, List<URL> classFiles, Map<String, String> sourceDigests, CodeSource codeSource) {
+            this.mainClassName = mainClassName;
+            this.classNames = classNames;
+            this.classFiles = classFiles;
+            this.sourceDigests = Collections.unmodifiableMap(sourceDigests);
+            this.codeSource = codeSource;
+        }
+    }
+}
@@ -16,72 +16,175 @@
 
 package de.indisopht.guice.groovy.internal.interceptors;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.sf.cglib.proxy.Dispatcher;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 
 import org.apache.log4j.Logger;
 
-import de.indisopht.guice.groovy.GroovyProvider;
+import de.indisopht.guice.groovy.internal.RecompilationTimer;
 import de.indisopht.guice.groovy.internal.RecompileConfiguration;
+import de.indisopht.guice.groovy.internal.SourceWatcher.SourceChangeListener;
 
 /**
  * Interceptor for triggering automatic recompilation of changed 
  * groovy source files without the need to change references to the
  * recompiled class.
+ * <br/>
+ * Either the {@link RecompilationTimer} marks the interceptor as
+ * due for recompilation once per interval or, if the interceptor is
+ * registered at a {@link de.indisopht.guice.groovy.internal.SourceWatcher},
+ * recompilation is done only after the source has changed. Either way a
+ * call only reads a volatile flag, it never reads the clock.
+ * <br/>
+ * Recompilation is done once per change by a background thread.
+ * Until it has finished, calls are delegated to the current
+ * instance without blocking.
+ * <br/>
+ * The interceptor serves cglib proxies as {@link MethodInterceptor}
+ * and JDK proxies as {@link InvocationHandler}. As {@link Dispatcher}
+ * it serves cglib proxies, which call the current delegate directly
+ * without boxing the arguments, so that calls can be inlined.
+ * 
+ * @see RecompilingProxyFactory
  * 
  * @author Stefan Maassen
  * @since 0.3.0
  */
-@SuppressWarnings("unchecked")
-public class RecompilationInterceptor implements MethodInterceptor {
+public class RecompilationInterceptor implements MethodInterceptor, InvocationHandler, Dispatcher, SourceChangeListener {
     
     private static final Logger logger=Logger.getLogger(RecompilationInterceptor.class);
+    private static final ExecutorService recompilationExecutor=createRecompilationExecutor();
 
-    private final RecompileConfiguration recompileConfig;
-    private final GroovyProvider provider;
+    private final Recompiler recompiler;
+    private final AtomicBoolean recompiling=new AtomicBoolean(false);
     
-    private Object delegate;
-    private long lastRecompilation=0;
+    private volatile Object delegate;
+    private volatile boolean recompilationDue=false;
     
     /**
      * @param recompileConfig   configuration used for recompilation
      * @param delegate  the object to be proxied
-     * @param provider  the provider for delegate
+     * @param recompiler  creates new instances of the recompiled class
      */
-    public RecompilationInterceptor(RecompileConfiguration recompileConfig, Object delegate, GroovyProvider provider) {
+    public RecompilationInterceptor(RecompileConfiguration recompileConfig, Object delegate, Recompiler recompiler) {
         super();
-        this.recompileConfig = recompileConfig;
         this.delegate = delegate;
-        this.provider = provider;
-        this.lastRecompilation=System.currentTimeMillis();
+        this.recompiler = recompiler;
+        if (recompileConfig!=null) {
+            RecompilationTimer.schedule(this, recompileConfig.getIntervalIn(TimeUnit.MILLISECONDS));
+        }
     }
 
+    /**
+     * creates an interceptor, which recompiles only after
+     * {@link #sourceChanged(String)} has been called
+     * 
+     * @param delegate  the object to be proxied
+     * @param recompiler  creates new instances of the recompiled class
+     */
+    public RecompilationInterceptor(Object delegate, Recompiler recompiler) {
+        this(null, delegate, recompiler);
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.internal.SourceWatcher.SourceChangeListener#sourceChanged(java.lang.String)
+     */
+    @Override
+    public void sourceChanged(String sourceName) {
+        recompilationDue=true;
+    }
     
     /**
      * @see net.sf.cglib.proxy.MethodInterceptor#intercept(java.lang.Object, java.lang.reflect.Method, java.lang.Object[], net.sf.cglib.proxy.MethodProxy)
      */
     @Override
     public Object intercept(Object object, Method method, Object[] params, MethodProxy methodProxy) throws Throwable {
-        if (shouldRecompile()) {
-            Object tmp=provider.get();
-            if (tmp!=null) {
-                logger.debug("recompiling "+provider.getSomethingGroovy());
-                delegate=tmp;
-            }
-            this.lastRecompilation=System.currentTimeMillis();
-        }
+        triggerRecompilation();
         return methodProxy.invoke(delegate, params);
     }
-    
+
+    /**
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
+        triggerRecompilation();
+        try {
+            return method.invoke(delegate, params);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
     /**
-     * determines whether it is time for a recompilation check or not
+     * @return the current delegate, which is replaced only after recompilation
      * 
-     * @return true, if recompilation should be done
+     * @see net.sf.cglib.proxy.Dispatcher#loadObject()
      */
-    private boolean shouldRecompile() {
-        return System.currentTimeMillis()>=lastRecompilation+recompileConfig.getIntervalIn(TimeUnit.MILLISECONDS);
+    @Override
+    public Object loadObject() {
+        triggerRecompilation();
+        return delegate;
     }
+
+    /**
+     * starts recompiling in the background, if it's time to and no recompilation is running
+     */
+    private void triggerRecompilation() {
+        if (recompilationDue && recompiling.compareAndSet(false, true)) {
+            recompilationDue=false;
+            recompilationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recompile();
+                }
+            });
+        }
+    }
+
+    /**
+     * replaces the delegate by a new instance of the recompiled class.
+     * Called by the background thread only.
+     */
+    private void recompile() {
+        try {
+            Object tmp=recompiler.recompile(delegate);
+            if (tmp!=null) {
+                logger.debug("recompiling "+recompiler);
+                delegate=tmp;
+            }
+        } catch (RuntimeException e) {
+            logger.warn("keeping current instance of "+recompiler+", because recompilation failed: "+e.getMessage(), e);
+        } finally {
+            recompiling.set(false);
+        }
+    }
+
+    private static ExecutorService createRecompilationExecutor() {
+        ThreadPoolExecutor result=new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), 60l, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count=new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result=new Thread(r, "groovy-guice recompiler "+count.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
 }
\ No newline at end of file
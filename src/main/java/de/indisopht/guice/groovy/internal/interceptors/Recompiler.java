@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.interceptors;
+
+/**
+ * Channel between a {@link RecompilationInterceptor} and the
+ * provider of its delegate
+ * 
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public interface Recompiler {
+
+    /**
+     * @param delegate  the current delegate of the interceptor
+     * @return a new instance of the recompiled class or null, if recompilation 
+     *  is disabled or the delegate is an instance of the current class
+     */
+    Object recompile(Object delegate);
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.interceptors;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.Dispatcher;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+import net.sf.cglib.proxy.LazyLoader;
+import net.sf.cglib.proxy.MethodInterceptor;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the proxies delegating to a {@link RecompilationInterceptor}.
+ * <br/>
+ * Proxy classes are generated once per proxied type and cached by the
+ * factory. Each {@link de.indisopht.guice.groovy.internal.GroovyClassloaderFactory}
+ * has a factory of its own, so that the cached types and their
+ * classloaders are released together with the
+ * {@link com.google.inject.Injector}.
+ * <br/>
+ * Public interfaces are proxied by JDK proxies. Classes are proxied
+ * by cglib subclasses, which are instantiated without calling any
+ * constructor of the proxied class, because all calls are delegated
+ * anyway. If the JVM doesn't support this, the no-arg constructor is
+ * called like before.
+ * <br/>
+ * Dispatching proxies are cglib proxies for classes and interfaces,
+ * which fetch the current delegate from the interceptor and call the
+ * method on it directly. The delegate is read from a volatile field,
+ * which changes only, when the delegate is replaced after recompilation,
+ * so calls through these proxies can be inlined by the JIT.
+ * <br/>
+ * Lazy proxies are cglib proxies as well, which load their delegate on
+ * the first call of any method and call it directly afterwards.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public final class RecompilingProxyFactory {
+
+    private static final Logger logger = Logger.getLogger(RecompilingProxyFactory.class);
+    private static final Object reflectionFactory;
+    private static final Method newConstructorForSerialization;
+
+    static {
+        Object factory = null;
+        Method method = null;
+        try {
+            Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+            factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+            method = factoryClass.getMethod("newConstructorForSerialization", Class.class, Constructor.class);
+        } catch (Exception e) {
+            logger.debug("proxies of classes will be created by calling their constructors: " + e.getMessage());
+        }
+        reflectionFactory = factory;
+        newConstructorForSerialization = method;
+    }
+
+    private final ConcurrentMap<Class<?>, ProxyType> proxyTypes = new ConcurrentHashMap<Class<?>, ProxyType>();
+    private final ConcurrentMap<Class<?>, ProxyType> dispatchingProxyTypes = new ConcurrentHashMap<Class<?>, ProxyType>();
+    private final ConcurrentMap<Class<?>, ProxyType> lazyProxyTypes = new ConcurrentHashMap<Class<?>, ProxyType>();
+
+    public RecompilingProxyFactory() {
+        super();
+    }
+
+    /**
+     * @param type  the type to proxy
+     * @param interceptor   the interceptor all calls are delegated to
+     * @return a new proxy
+     */
+    public <T> T createProxy(Class<T> type, RecompilationInterceptor interceptor) {
+        ProxyType proxyType = proxyTypes.get(type);
+        if (proxyType == null) {
+            if (type.isInterface() && Modifier.isPublic(type.getModifiers())) {
+                try {
+                    proxyType = new ProxyType(Proxy.getProxyClass(type.getClassLoader(), type).getConstructor(InvocationHandler.class), ProxyType.JDK);
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalStateException(e);
+                }
+            } else {
+                proxyType = createProxyType(type, MethodInterceptor.class);
+            }
+            proxyType = cache(proxyTypes, type, proxyType);
+        }
+        return newInstance(type, proxyType, interceptor);
+    }
+
+    /**
+     * @param type  the type to proxy
+     * @param interceptor   the interceptor providing the delegate for every call
+     * @return a new proxy calling the delegate directly
+     */
+    public <T> T createDispatchingProxy(Class<T> type, RecompilationInterceptor interceptor) {
+        ProxyType proxyType = dispatchingProxyTypes.get(type);
+        if (proxyType == null) {
+            proxyType = cache(dispatchingProxyTypes, type, createProxyType(type, Dispatcher.class));
+        }
+        return newInstance(type, proxyType, interceptor);
+    }
+
+    /**
+     * @param type  the type to proxy
+     * @param loader    loads the delegate, when the first method of the proxy is called
+     * @return a new proxy, which hasn't loaded its delegate yet
+     */
+    public <T> T createLazyProxy(Class<T> type, LazyLoader loader) {
+        ProxyType proxyType = lazyProxyTypes.get(type);
+        if (proxyType == null) {
+            proxyType = cache(lazyProxyTypes, type, createProxyType(type, LazyLoader.class));
+        }
+        return newInstance(type, proxyType, loader);
+    }
+
+    private static ProxyType cache(ConcurrentMap<Class<?>, ProxyType> cache, Class<?> type, ProxyType proxyType) {
+        ProxyType concurrentlyCreated = cache.putIfAbsent(type, proxyType);
+        return concurrentlyCreated == null ? proxyType : concurrentlyCreated;
+    }
+
+    private static <T> T newInstance(Class<T> type, ProxyType proxyType, Callback callback) {
+        try {
+            return type.cast(proxyType.newInstance(callback));
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("can't create proxy for " + type.getName() + ": " + e.getCause().getMessage(), e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("can't create proxy for " + type.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static ProxyType createProxyType(Class<?> type, Class<? extends Callback> callbackType) {
+        Enhancer enhancer = new Enhancer();
+        if (type.isInterface()) {
+            enhancer.setInterfaces(new Class[] {type});
+        } else {
+            enhancer.setSuperclass(type);
+        }
+        enhancer.setCallbackType(callbackType);
+        enhancer.setUseFactory(true);
+        Class<?> proxyClass = enhancer.createClass();
+        if (newConstructorForSerialization != null) {
+            try {
+                Constructor<?> constructor = (Constructor<?>) newConstructorForSerialization.invoke(reflectionFactory, proxyClass, Object.class.getDeclaredConstructor());
+                constructor.setAccessible(true);
+                return new ProxyType(constructor, ProxyType.ALLOCATE);
+            } catch (Exception e) {
+                logger.debug("calling the constructor of " + type.getName() + " for creating proxies: " + e.getMessage());
+            }
+        }
+        try {
+            return new ProxyType(proxyClass.getConstructor(), ProxyType.CONSTRUCT);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(type.getName() + " can't be proxied, because it has no public no-arg constructor", e);
+        }
+    }
+
+    /**
+     * cached proxy class and the way to instantiate it
+     */
+    private static final class ProxyType {
+
+        /**
+         * JDK proxy, instantiated with the interceptor as {@link InvocationHandler}
+         */
+        static final int JDK = 0;
+        /**
+         * cglib proxy, allocated without calling any constructor
+         */
+        static final int ALLOCATE = 1;
+        /**
+         * cglib proxy, instantiated by its no-arg constructor
+         */
+        static final int CONSTRUCT = 2;
+
+        private final Constructor<?> constructor;
+        private final int kind;
+
+        ProxyType(Constructor<?> constructor, int kind) {
+            this.constructor = constructor;
+            this.kind = kind;
+        }
+
+        Object newInstance(Callback callback) throws Exception {
+            switch (kind) {
+            case JDK:
+                return constructor.newInstance((InvocationHandler) callback);
+            case ALLOCATE:
+                Factory result = (Factory) constructor.newInstance();
+                result.setCallback(0, callback);
+                return result;
+            default:
+                Class<?> proxyClass = constructor.getDeclaringClass();
+                Enhancer.registerCallbacks(proxyClass, new Callback[] {callback});
+                try {
+                    return constructor.newInstance();
+                } finally {
+                    Enhancer.registerCallbacks(proxyClass, null);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.indisopht.guice.groovy.spi.BindingMetricsMXBean;
+
+/**
+ * Counters of a single Groovy binding
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class BindingMetrics implements BindingMetricsMXBean {
+
+    private static final long[] BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, Long.MAX_VALUE};
+
+    private final String binding;
+    private final AtomicLong compileCount = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong maxCompileNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length);
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong recompileTriggerCount = new AtomicLong();
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile long lastSwap = -1;
+
+    /**
+     * @param binding   the script, script file name or class name of the binding
+     */
+    public BindingMetrics(String binding) {
+        this.binding = binding;
+    }
+
+    void compiled(long nanos) {
+        compileCount.incrementAndGet();
+        compileNanos.addAndGet(nanos);
+        long max = maxCompileNanos.get();
+        while (nanos > max && !maxCompileNanos.compareAndSet(max, nanos)) {
+            max = maxCompileNanos.get();
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (millis > BUCKETS[bucket]) {
+            bucket++;
+        }
+        histogram.incrementAndGet(bucket);
+    }
+
+    void compilationFailed() {
+        failureCount.incrementAndGet();
+    }
+
+    void recompileTriggered() {
+        recompileTriggerCount.incrementAndGet();
+    }
+
+    void swapped(int newGeneration) {
+        generation.set(newGeneration);
+        lastSwap = System.nanoTime();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getBinding()
+     */
+    @Override
+    public String getBinding() {
+        return binding;
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getCompileCount()
+     */
+    @Override
+    public long getCompileCount() {
+        return compileCount.get();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getFailureCount()
+     */
+    @Override
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getRecompileTriggerCount()
+     */
+    @Override
+    public long getRecompileTriggerCount() {
+        return recompileTriggerCount.get();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getGeneration()
+     */
+    @Override
+    public int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getMillisSinceLastSwap()
+     */
+    @Override
+    public long getMillisSinceLastSwap() {
+        long swap = lastSwap;
+        return swap == -1 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - swap);
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getMeanCompileMillis()
+     */
+    @Override
+    public double getMeanCompileMillis() {
+        long count = compileCount.get();
+        return count == 0 ? 0 : compileNanos.get() / 1000000d / count;
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getMaxCompileMillis()
+     */
+    @Override
+    public long getMaxCompileMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxCompileNanos.get());
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getCompileLatencyBucketMillis()
+     */
+    @Override
+    public long[] getCompileLatencyBucketMillis() {
+        return BUCKETS.clone();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.BindingMetricsMXBean#getCompileLatencyHistogram()
+     */
+    @Override
+    public long[] getCompileLatencyHistogram() {
+        long[] result = new long[histogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+}
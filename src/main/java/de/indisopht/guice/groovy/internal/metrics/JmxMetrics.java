@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.internal.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import de.indisopht.guice.groovy.spi.CompilationMetrics;
+
+/**
+ * {@link CompilationMetrics}, which registers a {@link BindingMetrics}
+ * MXBean per binding in the platform MBean server, when the binding
+ * reports its first event.
+ * <br/>
+ * The MXBeans are named
+ * <code>de.indisopht.guice.groovy:type=BindingMetrics,factory=&lt;id&gt;,name=&lt;binding&gt;</code>,
+ * where the id distinguishes the bindings of different
+ * {@link de.indisopht.guice.groovy.internal.GroovyClassloaderFactory}s.
+ * Inline scripts are named by their first line.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class JmxMetrics implements CompilationMetrics {
+
+    private static final Logger logger = Logger.getLogger(JmxMetrics.class);
+
+    /**
+     * domain of all registered MXBeans
+     */
+    public static final String DOMAIN = "de.indisopht.guice.groovy";
+
+    private static final int MAX_NAME_LENGTH = 80;
+
+    private final MBeanServer server;
+    private final String factoryId;
+    private final ConcurrentMap<String, BindingMetrics> bindings = new ConcurrentHashMap<String, BindingMetrics>();
+    private final Map<String, ObjectName> registeredNames = new ConcurrentHashMap<String, ObjectName>();
+
+    /**
+     * @param factoryId the id of the factory, whose bindings are measured
+     */
+    public JmxMetrics(String factoryId) {
+        this(ManagementFactory.getPlatformMBeanServer(), factoryId);
+    }
+
+    /**
+     * @param server    the server to register the MXBeans with
+     * @param factoryId the id of the factory, whose bindings are measured
+     */
+    public JmxMetrics(MBeanServer server, String factoryId) {
+        this.server = server;
+        this.factoryId = factoryId;
+    }
+
+    /**
+     * @param binding   the script, script file name or class name of a binding
+     * @return the metrics of binding, which are registered, if they haven't been yet
+     */
+    public BindingMetrics getBindingMetrics(String binding) {
+        BindingMetrics result = bindings.get(binding);
+        if (result == null) {
+            result = new BindingMetrics(binding);
+            BindingMetrics concurrentlyCreated = bindings.putIfAbsent(binding, result);
+            if (concurrentlyCreated != null) {
+                return concurrentlyCreated;
+            }
+            register(binding, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param binding   the script, script file name or class name of a binding
+     * @return the name of the MXBean of binding
+     * @throws JMException  if the name isn't valid
+     */
+    public ObjectName createName(String binding) throws JMException {
+        String name = binding.trim();
+        int lineEnd = name.indexOf('\n');
+        if (lineEnd >= 0 || name.length() > MAX_NAME_LENGTH) {
+            name = name.substring(0, Math.min(lineEnd < 0 ? name.length() : lineEnd, MAX_NAME_LENGTH)).trim()
+                    + "...#" + Integer.toHexString(binding.hashCode());
+        }
+        return new ObjectName(DOMAIN + ":type=BindingMetrics,factory=" + ObjectName.quote(factoryId) + ",name=" + ObjectName.quote(name));
+    }
+
+    private void register(String binding, BindingMetrics metrics) {
+        try {
+            ObjectName name = createName(binding);
+            server.registerMBean(metrics, name);
+            registeredNames.put(binding, name);
+        } catch (JMException e) {
+            logger.warn("can't register metrics of " + binding + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * unregisters all MXBeans registered so far
+     */
+    public void unregister() {
+        for (ObjectName currentName : registeredNames.values()) {
+            try {
+                server.unregisterMBean(currentName);
+            } catch (JMException e) {
+                logger.debug("can't unregister " + currentName + ": " + e.getMessage());
+            }
+        }
+        registeredNames.clear();
+        bindings.clear();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.CompilationMetrics#compiled(java.lang.String, long)
+     */
+    @Override
+    public void compiled(String binding, long nanos) {
+        getBindingMetrics(binding).compiled(nanos);
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.CompilationMetrics#compilationFailed(java.lang.String, long)
+     */
+    @Override
+    public void compilationFailed(String binding, long nanos) {
+        getBindingMetrics(binding).compilationFailed();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.CompilationMetrics#recompileTriggered(java.lang.String)
+     */
+    @Override
+    public void recompileTriggered(String binding) {
+        getBindingMetrics(binding).recompileTriggered();
+    }
+
+    /**
+     * @see de.indisopht.guice.groovy.spi.CompilationMetrics#swapped(java.lang.String, int)
+     */
+    @Override
+    public void swapped(String binding, int generation) {
+        getBindingMetrics(binding).swapped(generation);
+    }
+}
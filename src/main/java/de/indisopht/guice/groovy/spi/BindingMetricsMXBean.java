@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.spi;
+
+/**
+ * Metrics of a single Groovy binding as registered in JMX by
+ * {@link de.indisopht.guice.groovy.GroovyGuice.GroovyModuleBuilderInstance#enableJmxMetrics()}.
+ * Times are given in milliseconds.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public interface BindingMetricsMXBean {
+
+    /**
+     * @return the script, script file name or class name of the binding
+     */
+    String getBinding();
+
+    /**
+     * @return the number of classes loaded for the binding
+     */
+    long getCompileCount();
+
+    /**
+     * @return the number of failed attempts to load the class of the binding
+     */
+    long getFailureCount();
+
+    /**
+     * @return the number of times the class of the binding was outdated
+     */
+    long getRecompileTriggerCount();
+
+    /**
+     * @return the number of classes replaced for the binding so far
+     */
+    int getGeneration();
+
+    /**
+     * @return the time since the class of the binding has been replaced
+     *  the last time or -1, if it has never been replaced
+     */
+    long getMillisSinceLastSwap();
+
+    /**
+     * @return the mean time of loading the class of the binding
+     */
+    double getMeanCompileMillis();
+
+    /**
+     * @return the maximum time of loading the class of the binding
+     */
+    long getMaxCompileMillis();
+
+    /**
+     * @return the upper bounds of the buckets of {@link #getCompileLatencyHistogram()};
+     *  the last bucket is unbounded
+     */
+    long[] getCompileLatencyBucketMillis();
+
+    /**
+     * @return the number of loads per bucket of {@link #getCompileLatencyBucketMillis()}
+     */
+    long[] getCompileLatencyHistogram();
+}
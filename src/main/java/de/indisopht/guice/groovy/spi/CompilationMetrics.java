@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.spi;
+
+/**
+ * Receives compile and recompile events of the Groovy bindings of a
+ * {@link de.indisopht.guice.groovy.internal.GroovyClassloaderFactory}.
+ * <br/>
+ * Bindings are identified by the script, script file name or class name
+ * given to their {@link de.indisopht.guice.groovy.GroovyProvider}.
+ * Implementations are called by the threads loading the Groovy classes
+ * and must be thread safe.
+ *
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public interface CompilationMetrics {
+
+    /**
+     * called after the class of a binding has been loaded, either
+     * compiled or taken from a cache
+     *
+     * @param binding   the binding, whose class has been loaded
+     * @param nanos the time spent loading the class
+     */
+    void compiled(String binding, long nanos);
+
+    /**
+     * called, if the class of a binding can't be loaded
+     *
+     * @param binding   the binding, whose class can't be loaded
+     * @param nanos the time spent until loading failed
+     */
+    void compilationFailed(String binding, long nanos);
+
+    /**
+     * called, if the class of a binding is outdated and will be recompiled
+     *
+     * @param binding   the binding, whose class is outdated
+     */
+    void recompileTriggered(String binding);
+
+    /**
+     * called, after a recompiled class has replaced the previous class
+     * of a binding, either by being loaded as a new class or by being
+     * redefined in place
+     *
+     * @param binding   the binding, whose class has been replaced
+     * @param generation    the number of classes replaced for the binding so far
+     */
+    void swapped(String binding, int generation);
+}
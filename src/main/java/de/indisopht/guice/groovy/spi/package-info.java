@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * This package contains the interfaces for monitoring groovy-guice.
+ *
+ * <dl>
+ * <dt>{@link de.indisopht.guice.groovy.spi.CompilationMetrics}
+ * <dd> receives compile and recompile events of Groovy bindings
+ * </dl>
+ * <dl>
+ * <dt>{@link de.indisopht.guice.groovy.spi.BindingMetricsMXBean}
+ * <dd> metrics of a Groovy binding registered in JMX
+ * </dl>
+ *
+ * @since 0.5.0
+*/
+package de.indisopht.guice.groovy.spi;
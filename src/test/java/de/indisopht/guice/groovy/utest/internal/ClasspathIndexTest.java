@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.utest.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.indisopht.guice.groovy.internal.ClasspathIndex;
+
+/**
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class ClasspathIndexTest {
+
+    private File root;
+
+    @Before
+    public void createRoot() throws IOException {
+        root = File.createTempFile("classpathIndex", "");
+        assertTrue(root.delete());
+        assertTrue(root.mkdir());
+    }
+
+    @After
+    public void deleteRoot() {
+        delete(root);
+    }
+
+    @Test
+    public void initialScan() throws Exception {
+        createFile("Root.groovy");
+        createFile("a/b/Nested.groovy");
+        ClasspathIndex index = ClasspathIndex.create(new URL[] { root.toURI().toURL() });
+        assertNotNull(index);
+        assertTrue(index.contains("Root.groovy"));
+        assertTrue(index.contains("a/b/Nested.groovy"));
+        assertEquals(new File(root, "a/b/Nested.groovy").toURI().toURL(), index.getResource("a/b/Nested.groovy"));
+    }
+
+    @Test
+    public void missingName() throws Exception {
+        createFile("a/Existing.groovy");
+        ClasspathIndex index = ClasspathIndex.create(new URL[] { root.toURI().toURL() });
+        assertFalse(index.contains("a/Missing.groovy"));
+        assertFalse(index.contains("missing/Missing.groovy"));
+        assertNull(index.getResource("a/Missing.groovy"));
+    }
+
+    @Test
+    public void rescanAfterDirectoryChange() throws Exception {
+        createFile("a/Existing.groovy");
+        ClasspathIndex index = ClasspathIndex.create(new URL[] { root.toURI().toURL() });
+        final List<URL> changedEntries = new ArrayList<URL>();
+        index.setChangeListener(new ClasspathIndex.ChangeListener() {
+            @Override
+            public void entryChanged(URL url) {
+                changedEntries.add(url);
+            }
+        });
+        assertFalse(index.contains("a/Added.groovy"));
+        createFile("a/Added.groovy");
+        touch(new File(root, "a"));
+        Thread.sleep(ClasspathIndex.REVALIDATION_INTERVAL + 100);
+        assertTrue(index.contains("a/Added.groovy"));
+        assertTrue(index.contains("a/Existing.groovy"));
+        assertEquals(Collections.singletonList(root.toURI().toURL()), changedEntries);
+    }
+
+    @Test
+    public void concurrentRescansAreKept() throws Exception {
+        createFile("a/Existing.groovy");
+        createFile("b/Existing.groovy");
+        final ClasspathIndex index = ClasspathIndex.create(new URL[] { root.toURI().toURL() });
+        createFile("a/Added.groovy");
+        createFile("b/Added.groovy");
+        touch(new File(root, "a"));
+        touch(new File(root, "b"));
+        Thread.sleep(ClasspathIndex.REVALIDATION_INTERVAL + 100);
+        final CyclicBarrier start = new CyclicBarrier(2);
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                await(start);
+                index.contains("b/Added.groovy");
+            }
+        };
+        other.start();
+        await(start);
+        index.contains("a/Added.groovy");
+        other.join();
+        assertTrue(index.contains("a/Added.groovy"));
+        assertTrue(index.contains("b/Added.groovy"));
+    }
+
+    @Test
+    public void jarEntries() throws Exception {
+        File jar = new File(root, "scripts.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry("a/"));
+            out.putNextEntry(new ZipEntry("a/InJar.groovy"));
+            out.write("class InJar {}".getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        ClasspathIndex index = ClasspathIndex.create(new URL[] { jar.toURI().toURL() });
+        assertNotNull(index);
+        assertTrue(index.contains("a/InJar.groovy"));
+        assertFalse(index.contains("a/Missing.groovy"));
+        URL resource = index.getResource("a/InJar.groovy");
+        assertEquals("jar", resource.getProtocol());
+        assertTrue(resource.toString().endsWith("!/a/InJar.groovy"));
+    }
+
+    @Test
+    public void symbolicLinkLoopIsNotFollowed() throws Exception {
+        createFile("a/Existing.groovy");
+        assumeTrue(createSymbolicLink(new File(root, "a/loop"), root));
+        ClasspathIndex index = ClasspathIndex.create(new URL[] { root.toURI().toURL() });
+        assertTrue(index.contains("a/Existing.groovy"));
+        assertFalse(index.contains("a/loop/a/Existing.groovy"));
+    }
+
+    private void createFile(String name) throws IOException {
+        File file = new File(root, name);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("class Test {}".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * makes sure the modification time of a directory differs from the indexed one,
+     * even if the file system only has a resolution of seconds
+     */
+    private static void touch(File directory) {
+        assertTrue(directory.setLastModified(directory.lastModified() - 10000));
+    }
+
+    /**
+     * @return false, if the platform can't create symbolic links
+     */
+    private static boolean createSymbolicLink(File link, File target) throws InterruptedException {
+        try {
+            Process process = new ProcessBuilder("ln", "-s", target.getAbsolutePath(), link.getAbsolutePath()).start();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null && !isSymbolicLink(file)) {
+            for (File currentChild : children) {
+                delete(currentChild);
+            }
+        }
+        file.delete();
+    }
+
+    private static boolean isSymbolicLink(File file) {
+        try {
+            File canonicalParent = file.getAbsoluteFile().getParentFile().getCanonicalFile();
+            return !new File(canonicalParent, file.getName()).equals(file.getCanonicalFile());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
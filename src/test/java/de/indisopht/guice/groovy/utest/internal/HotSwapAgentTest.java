@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.utest.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.indisopht.guice.groovy.internal.HotSwapAgent;
+
+/**
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class HotSwapAgentTest {
+
+    private static final String PREVIOUS_TIMESTAMP = "__timeStamp__239_neverHappen1000";
+    private static final String RECOMPILED_TIMESTAMP = "__timeStamp__239_neverHappen2000000";
+
+    @After
+    public void stopAgent() {
+        HotSwapAgent.agentmain(null, null);
+    }
+
+    @Test
+    public void renameTimestampField() throws Exception {
+        byte[] bytecode = HotSwapAgent.renameTimestampField(readBytecode(Timestamped.class), RECOMPILED_TIMESTAMP);
+        Class<?> renamed = new DefiningLoader().define(Timestamped.class.getName(), bytecode);
+        assertNotNull(renamed.getDeclaredField(RECOMPILED_TIMESTAMP));
+        assertEquals(1, renamed.getDeclaredFields().length);
+        Object instance = renamed.newInstance();
+        assertEquals("timestamp " + RECOMPILED_TIMESTAMP, instance.toString());
+    }
+
+    @Test
+    public void renameTimestampFieldKeepsMatchingName() throws Exception {
+        byte[] bytecode = readBytecode(Timestamped.class);
+        assertSame(bytecode, HotSwapAgent.renameTimestampField(bytecode, PREVIOUS_TIMESTAMP));
+    }
+
+    @Test
+    public void redefineWithoutAgent() throws Exception {
+        assertFalse(HotSwapAgent.isAvailable());
+        assertFalse(HotSwapAgent.redefine(Collections.<Class<?>, byte[]> singletonMap(Timestamped.class, readBytecode(Timestamped.class))));
+    }
+
+    @Test
+    public void redefineRenamesTimestampField() throws Exception {
+        RecordingInstrumentation recording = new RecordingInstrumentation(false);
+        HotSwapAgent.agentmain(null, recording.create());
+        assertTrue(HotSwapAgent.isAvailable());
+        byte[] recompiled = HotSwapAgent.renameTimestampField(readBytecode(Timestamped.class), RECOMPILED_TIMESTAMP);
+        assertTrue(HotSwapAgent.redefine(Collections.<Class<?>, byte[]> singletonMap(Timestamped.class, recompiled)));
+        assertEquals(1, recording.definitions.size());
+        ClassDefinition definition = recording.definitions.get(0);
+        assertSame(Timestamped.class, definition.getDefinitionClass());
+        Class<?> redefined = new DefiningLoader().define(Timestamped.class.getName(), definition.getDefinitionClassFile());
+        assertNotNull(redefined.getDeclaredField(PREVIOUS_TIMESTAMP));
+    }
+
+    @Test
+    public void redefineRejected() throws Exception {
+        HotSwapAgent.agentmain(null, new RecordingInstrumentation(true).create());
+        assertFalse(HotSwapAgent.redefine(Collections.<Class<?>, byte[]> singletonMap(Timestamped.class, readBytecode(Timestamped.class))));
+    }
+
+    private static byte[] readBytecode(Class<?> type) throws IOException {
+        InputStream in = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * has a field named like the one Groovy stores the compilation time in
+     */
+    public static class Timestamped {
+
+        public static Long __timeStamp__239_neverHappen1000 = Long.valueOf(1000);
+
+        @Override
+        public String toString() {
+            return "timestamp " + getClass().getDeclaredFields()[0].getName();
+        }
+    }
+
+    private static class DefiningLoader extends ClassLoader {
+
+        DefiningLoader() {
+            super(HotSwapAgentTest.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+    /**
+     * records the classes it's asked to redefine without redefining them
+     */
+    private static class RecordingInstrumentation implements InvocationHandler {
+
+        private final boolean rejecting;
+        private final List<ClassDefinition> definitions = new ArrayList<ClassDefinition>();
+
+        RecordingInstrumentation(boolean rejecting) {
+            super();
+            this.rejecting = rejecting;
+        }
+
+        Instrumentation create() {
+            return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Instrumentation.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("isRedefineClassesSupported")) {
+                return Boolean.TRUE;
+            }
+            if (method.getName().equals("redefineClasses")) {
+                if (rejecting) {
+                    throw new UnsupportedOperationException("class redefinition failed: attempted to change the schema");
+                }
+                definitions.addAll(Arrays.asList((ClassDefinition[]) args[0]));
+                return null;
+            }
+            if (method.getName().equals("hashCode")) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if (method.getName().equals("equals")) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
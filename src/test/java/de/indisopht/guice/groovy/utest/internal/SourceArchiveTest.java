@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.utest.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.indisopht.guice.groovy.internal.ClasspathIndex;
+import de.indisopht.guice.groovy.internal.GroovyClassloaderFactory;
+import de.indisopht.guice.groovy.internal.GroovyGuiceClassLoader;
+import de.indisopht.guice.groovy.internal.archive.SourceArchive;
+import de.indisopht.guice.groovy.internal.archive.SourceArchiveWriter;
+
+/**
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class SourceArchiveTest {
+
+    private static final String ARCHIVED = "package pkg\nclass Archived {\n    String toString() { 'archived' }\n}\n";
+    private static final String REPLACED = ARCHIVED.replace("'archived'", "'replaced archive'");
+
+    private File root;
+    private File sources;
+    private File archiveFile;
+
+    @Before
+    public void createSources() throws IOException {
+        root = File.createTempFile("sourceArchive", "");
+        assertTrue(root.delete());
+        sources = new File(root, "sources");
+        archiveFile = new File(root, "sources" + SourceArchive.EXTENSION);
+        writeFile("pkg/Archived.groovy", ARCHIVED);
+        writeFile("Other.groovy", "class Other {}\n");
+        writeFile("pkg/notes.txt", "not a Groovy source");
+        new SourceArchiveWriter().addSourceRoot(sources).write(archiveFile);
+    }
+
+    @After
+    public void deleteSources() {
+        delete(root);
+    }
+
+    @Test
+    public void writeThenRead() throws Exception {
+        SourceArchive archive = SourceArchive.open(archiveFile);
+        assertEquals(new HashSet<String>(Arrays.asList("pkg/Archived.groovy", "Other.groovy")), archive.getNames());
+        assertTrue(archive.contains("pkg/Archived.groovy"));
+        assertFalse(archive.contains("pkg/notes.txt"));
+        assertEquals(ARCHIVED, toString(archive.getContent("pkg/Archived.groovy")));
+        assertEquals("class Other {}\n", toString(archive.getContent("Other.groovy")));
+        assertNull(archive.getContent("pkg/Missing.groovy"));
+    }
+
+    @Test
+    public void notAnArchive() throws Exception {
+        File file = writeFile("broken" + SourceArchive.EXTENSION, "class Broken {}");
+        try {
+            SourceArchive.open(file);
+            fail("opened a Groovy source as archive");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("isn't an archive"));
+        }
+    }
+
+    @Test
+    public void resolveURL() throws Exception {
+        SourceArchive archive = SourceArchive.open(archiveFile);
+        URL url = archive.getResource("pkg/Archived.groovy");
+        assertEquals(SourceArchive.PROTOCOL, url.getProtocol());
+        assertTrue(url.toExternalForm(), url.toExternalForm().endsWith(SourceArchive.EXTENSION + "!/pkg/Archived.groovy"));
+        assertEquals(ARCHIVED, toString(url.openStream()));
+        assertEquals(ARCHIVED, toString(SourceArchive.openStream(url.toExternalForm())));
+        assertNull(archive.getResource("pkg/Missing.groovy"));
+        try {
+            SourceArchive.openStream(url.toExternalForm().replace("Archived", "Missing"));
+            fail("opened a source missing in the archive");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void archiveOnClasspath() throws Exception {
+        GroovyClassloaderFactory factory = new GroovyClassloaderFactory();
+        factory.getClassPath().addClasspath(archiveFile.getAbsolutePath());
+        GroovyGuiceClassLoader loader = factory.createGroovyClassLoader();
+        assertEquals(1, loader.getSourceArchives().size());
+        assertEquals(SourceArchive.PROTOCOL, loader.getResource("pkg/Archived.groovy").getProtocol());
+        assertNull(loader.getResource("pkg/Missing.groovy"));
+        Class<?> archived = loader.loadClass("pkg.Archived");
+        assertEquals("archived", archived.newInstance().toString());
+    }
+
+    @Test
+    public void replacedArchiveOnClasspath() throws Exception {
+        GroovyClassloaderFactory factory = new GroovyClassloaderFactory();
+        factory.getClassPath().addClasspath(archiveFile.getAbsolutePath());
+        GroovyGuiceClassLoader loader = factory.createGroovyClassLoader();
+        assertNull(loader.getResource("pkg/Added.groovy"));
+        writeFile("pkg/Added.groovy", "package pkg\nclass Added {}\n");
+        new SourceArchiveWriter().addSourceRoot(sources).write(archiveFile);
+        Thread.sleep(ClasspathIndex.REVALIDATION_INTERVAL + 100);
+        assertEquals(SourceArchive.PROTOCOL, loader.getResource("pkg/Added.groovy").getProtocol());
+        assertTrue(loader.getSourceArchives().get(0).contains("pkg/Added.groovy"));
+    }
+
+    @Test
+    public void reopenReplacedArchive() throws Exception {
+        SourceArchive archive = SourceArchive.open(archiveFile);
+        assertSame(archive, SourceArchive.open(archiveFile));
+        URL previousURL = archive.getResource("pkg/Archived.groovy");
+        writeFile("pkg/Archived.groovy", REPLACED);
+        new SourceArchiveWriter().addSourceRoot(sources).write(archiveFile);
+        SourceArchive replaced = SourceArchive.open(archiveFile);
+        assertNotSame(archive, replaced);
+        assertSame(replaced, SourceArchive.open(archiveFile));
+        assertEquals(REPLACED, toString(replaced.getContent("pkg/Archived.groovy")));
+        assertEquals(ARCHIVED, toString(archive.getContent("pkg/Archived.groovy")));
+        assertEquals(ARCHIVED, toString(previousURL.openStream()));
+        assertEquals(REPLACED, toString(SourceArchive.openStream(previousURL.toExternalForm())));
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        File file = new File(sources, name);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String toString(ByteBuffer content) throws IOException {
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String toString(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File currentChild : children) {
+                delete(currentChild);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2009 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.indisopht.guice.groovy.utest.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.indisopht.guice.groovy.internal.ClasspathContainer;
+import de.indisopht.guice.groovy.internal.RecompileConfiguration;
+import de.indisopht.guice.groovy.internal.SourceWatcher;
+import de.indisopht.guice.groovy.internal.SourceWatcher.SourceChangeListener;
+
+/**
+ * @author Stefan Maassen
+ * @since 0.5.0
+ */
+public class SourceWatcherTest {
+
+    private File root;
+    private SourceWatcher watcher;
+    private final BlockingQueue<String> changedSources = new LinkedBlockingQueue<String>();
+    private final SourceChangeListener listener = new SourceChangeListener() {
+        @Override
+        public void sourceChanged(String sourceName) {
+            changedSources.add(sourceName);
+        }
+    };
+
+    @Before
+    public void createWatcher() throws IOException {
+        root = File.createTempFile("sourceWatcher", "");
+        assertTrue(root.delete());
+        assertTrue(root.mkdir());
+        ClasspathContainer classPath = new ClasspathContainer();
+        classPath.addClasspath(root.getPath());
+        watcher = new SourceWatcher(classPath, new RecompileConfiguration(20, TimeUnit.MILLISECONDS));
+    }
+
+    @After
+    public void closeWatcher() {
+        watcher.close();
+        for (File currentFile : root.listFiles()) {
+            currentFile.delete();
+        }
+        root.delete();
+    }
+
+    @Test
+    public void notifiesListenerOfAddedSource() throws Exception {
+        watcher.addListener(listener);
+        writeSource("Added.groovy");
+        assertEquals("Added.groovy", changedSources.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeStopsWatchingThread() throws Exception {
+        Set<Thread> previousThreads = findWatchingThreads();
+        watcher.addListener(listener);
+        Set<Thread> threads = findWatchingThreads();
+        threads.removeAll(previousThreads);
+        assertEquals(1, threads.size());
+        watcher.close();
+        assertFalse(threads.iterator().next().isAlive());
+        watcher.addListener(listener);
+        assertTrue("closed watcher started again", previousThreads.containsAll(findWatchingThreads()));
+        writeSource("Added.groovy");
+        assertNull(changedSources.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private void writeSource(String name) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(root, name));
+        try {
+            out.write("class Added {}".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Set<Thread> findWatchingThreads() {
+        Set<Thread> result = new HashSet<Thread>();
+        for (Thread currentThread : Thread.getAllStackTraces().keySet()) {
+            if (currentThread.getName().equals("groovy-guice source watcher") && currentThread.isAlive()) {
+                result.add(currentThread);
+            }
+        }
+        return result;
+    }
+}
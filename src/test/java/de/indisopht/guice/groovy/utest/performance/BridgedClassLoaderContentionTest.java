@@ -0,0 +1,99 @@
+package de.indisopht.guice.groovy.utest.performance;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import de.indisopht.guice.groovy.internal.BridgedClassLoader;
+
+/**
+ * looks up classes through {@link BridgedClassLoader} from many threads
+ * at once and checks, that every thread gets the same class instances
+ * and that the lookups finish without deadlocking. The throughput is
+ * measured by the BridgedClassLoaderBenchmark.
+ */
+public final class BridgedClassLoaderContentionTest {
+
+    private static final int LOOKUPS_PER_THREAD = 5000;
+    private static final long TIMEOUT_IN_SECONDS = 30;
+    private static final String[] CLASS_NAMES = {
+        "java.lang.String", "java.lang.Integer", "java.util.ArrayList", "java.util.HashMap",
+        "java.util.LinkedList", "java.util.TreeMap", "java.io.File", "java.net.URL",
+        "java.util.concurrent.ConcurrentHashMap", "java.lang.StringBuilder", "java.math.BigDecimal",
+        "groovy.lang.GroovyObject", "groovy.lang.MetaClass", "com.google.inject.Injector",
+        "org.junit.Test", "de.indisopht.guice.groovy.GroovyGuice"
+    };
+    private static final String[] MISSING_NAMES = {
+        "java.lang.TestInterfaceBeanInfo", "groovy.lang.TestInterfaceCustomizer", "TestInterfaceBeanInfo"
+    };
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        ClassLoader parent = getClass().getClassLoader();
+        final BridgedClassLoader loader = new BridgedClassLoader(parent);
+        int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Class<?>[]>> results = new ArrayList<Future<Class<?>[]>>();
+            for (int i = 0; i < threads; i++) {
+                final int offset = i;
+                results.add(executor.submit(new Callable<Class<?>[]>() {
+                    @Override
+                    public Class<?>[] call() throws Exception {
+                        start.await();
+                        return lookup(loader, offset);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Class<?>[]> currentResult : results) {
+                Class<?>[] classes;
+                try {
+                    classes = currentResult.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    fail("lookups haven't finished within " + TIMEOUT_IN_SECONDS + " seconds, they're probably deadlocked");
+                    return;
+                }
+                for (int i = 0; i < CLASS_NAMES.length; i++) {
+                    assertSame(CLASS_NAMES[i], parent.loadClass(CLASS_NAMES[i]), classes[i]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the classes found for {@link #CLASS_NAMES}, which must be the same on every lookup
+     */
+    private Class<?>[] lookup(ClassLoader loader, int offset) throws ClassNotFoundException {
+        Class<?>[] result = new Class<?>[CLASS_NAMES.length];
+        for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+            int index = (i + offset) % CLASS_NAMES.length;
+            Class<?> loaded = loader.loadClass(CLASS_NAMES[index]);
+            if (result[index] == null) {
+                result[index] = loaded;
+            }
+            assertSame(CLASS_NAMES[index], result[index], loaded);
+            try {
+                loader.loadClass(MISSING_NAMES[i % MISSING_NAMES.length]);
+                fail(MISSING_NAMES[i % MISSING_NAMES.length] + " found");
+            } catch (ClassNotFoundException e) {
+                // expected
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,147 @@
+package de.indisopht.guice.groovy.utest.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import de.indisopht.guice.groovy.internal.BridgedClassLoader;
+import de.indisopht.guice.groovy.internal.GroovyGuiceClassLoader;
+
+/**
+ * checks that {@link BridgedClassLoader} answers repeated lookups of a
+ * missing class without asking its bundle or parent again, until the
+ * classpath changes
+ */
+public final class BridgedClassLoaderMissTest {
+
+    private static final String MISSING_NAME = "java.lang.TestInterfaceBeanInfo";
+
+    @Test
+    public void testRepeatedMissDoesNotReachBundleOrParent() throws Exception {
+        CountingParent parent = new CountingParent();
+        CountingBundle bundle = new CountingBundle();
+        BridgedClassLoader loader = new BridgedClassLoader(parent, bundle.create());
+        ClassNotFoundException first = lookupMissing(loader);
+        assertEquals(1, bundle.lookups(MISSING_NAME));
+        assertEquals(1, parent.lookups(MISSING_NAME));
+        ClassNotFoundException second = lookupMissing(loader);
+        assertEquals("MissingClassException", second.getClass().getSimpleName());
+        assertEquals("missing class thrown without stack trace", 0, second.getStackTrace().length);
+        assertEquals(1, bundle.lookups(MISSING_NAME));
+        assertEquals(1, parent.lookups(MISSING_NAME));
+        assertEquals(MISSING_NAME, first.getMessage());
+        assertEquals(MISSING_NAME, second.getMessage());
+    }
+
+    @Test
+    public void testExistingClassIsNotRemembered() throws Exception {
+        CountingParent parent = new CountingParent();
+        BridgedClassLoader loader = new BridgedClassLoader(parent);
+        assertSame(String.class, loader.loadClass("java.lang.String"));
+        assertSame(String.class, loader.loadClass("java.lang.String"));
+        assertEquals(2, parent.lookups("java.lang.String"));
+    }
+
+    @Test
+    public void testMissIsForgottenAfterClasspathChange() throws Exception {
+        CountingParent parent = new CountingParent();
+        BridgedClassLoader loader = new BridgedClassLoader(parent);
+        GroovyGuiceClassLoader groovyLoader = new GroovyGuiceClassLoader(loader, CompilerConfiguration.DEFAULT);
+        lookupMissing(loader);
+        lookupMissing(loader);
+        assertEquals(1, parent.lookups(MISSING_NAME));
+        groovyLoader.addURL(new File(System.getProperty("java.io.tmpdir")).toURI().toURL());
+        lookupMissing(loader);
+        assertEquals(2, parent.lookups(MISSING_NAME));
+    }
+
+    private ClassNotFoundException lookupMissing(ClassLoader loader) {
+        try {
+            loader.loadClass(MISSING_NAME);
+            fail(MISSING_NAME + " found");
+            return null;
+        } catch (ClassNotFoundException e) {
+            return e;
+        }
+    }
+
+    /**
+     * counts the lookups of every class name
+     */
+    private static final class CountingParent extends ClassLoader {
+
+        private final ConcurrentMap<String, AtomicInteger> lookups = new ConcurrentHashMap<String, AtomicInteger>();
+
+        CountingParent() {
+            super(BridgedClassLoaderMissTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            count(lookups, name);
+            return super.loadClass(name, resolve);
+        }
+
+        int lookups(String name) {
+            AtomicInteger result = lookups.get(name);
+            return result == null ? 0 : result.get();
+        }
+    }
+
+    /**
+     * a bundle without classes, which counts the lookups of every class name
+     */
+    private static final class CountingBundle implements InvocationHandler {
+
+        private final ConcurrentMap<String, AtomicInteger> lookups = new ConcurrentHashMap<String, AtomicInteger>();
+
+        Bundle create() {
+            return (Bundle) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Bundle.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("loadClass")) {
+                count(lookups, (String) args[0]);
+                throw new ClassNotFoundException((String) args[0]);
+            }
+            if (method.getName().equals("getBundleContext")) {
+                return null;
+            }
+            if (method.getName().equals("hashCode")) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if (method.getName().equals("equals")) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        int lookups(String name) {
+            AtomicInteger result = lookups.get(name);
+            return result == null ? 0 : result.get();
+        }
+    }
+
+    private static void count(ConcurrentMap<String, AtomicInteger> lookups, String name) {
+        AtomicInteger count = lookups.get(name);
+        if (count == null) {
+            AtomicInteger concurrentlyCreated = lookups.putIfAbsent(name, count = new AtomicInteger());
+            if (concurrentlyCreated != null) {
+                count = concurrentlyCreated;
+            }
+        }
+        count.incrementAndGet();
+    }
+}
@@ -0,0 +1,113 @@
+package de.indisopht.guice.groovy.utest.performance;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+
+import com.google.inject.Binder;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.name.Names;
+
+import de.indisopht.guice.groovy.GroovyGuice;
+import de.indisopht.guice.groovy.GroovyGuice.GroovyModuleBuilderInstance;
+import de.indisopht.guice.groovy.GroovyProvider;
+import de.indisopht.guice.groovy.utest.TestInterface;
+
+/**
+ * compares the bytes allocated per injection of a Groovy class through
+ * {@link GroovyProvider} with the bytes allocated by Guice for injecting
+ * the same class through a provider, which doesn't do anything else
+ */
+public final class GroovyProviderAllocationTest {
+
+    private static final int WARMUP = 20000;
+    private static final int MEASURED = 100000;
+
+    /**
+     * recompilation is enabled by default, so changes of the source must not be checked per call
+     */
+    @Test
+    public void testSteadyStateAllocation() {
+        assertSteadyStateAllocation(GroovyGuice
+            .createModule()
+            .addClasspath(new File(URLClassLoader.getSystemResource("TestClass.groovy").getPath()).getParent()));
+    }
+
+    @Test
+    public void testSteadyStateAllocationWithoutRecompilation() {
+        assertSteadyStateAllocation(GroovyGuice
+            .createModule()
+            .addClasspath(new File(URLClassLoader.getSystemResource("TestClass.groovy").getPath()).getParent())
+            .disableRecompilation());
+    }
+
+    private void assertSteadyStateAllocation(GroovyModuleBuilderInstance groovyGuiceModule) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("allocation can't be measured on this JVM");
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            System.out.println("allocation can't be measured on this JVM");
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        
+        final DelegatingProvider delegatingProvider = new DelegatingProvider();
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("TestClass"){});
+                binder.bind(TestInterface.class).annotatedWith(Names.named("delegating")).toProvider(delegatingProvider);
+            }
+        };
+        Injector injector = Guice.createInjector(groovyModule, groovyGuiceModule.build());
+        Provider<TestInterface> groovyProvider = injector.getProvider(TestInterface.class);
+        delegatingProvider.delegate = injector.getProvider(groovyProvider.get().getClass());
+        Provider<TestInterface> guiceProvider = injector.getProvider(Key.get(TestInterface.class, Names.named("delegating")));
+        
+        long guiceBytes = allocatedBytesPerCall(threadBean, guiceProvider);
+        long groovyBytes = allocatedBytesPerCall(threadBean, groovyProvider);
+        displayResults("Guice", guiceBytes);
+        displayResults("GroovyProvider", groovyBytes);
+        assertTrue("GroovyProvider.get() allocates " + (groovyBytes - guiceBytes) + " additional bytes per call", groovyBytes <= guiceBytes + 8);
+    }
+
+    private void displayResults(String label, long bytesPerCall) {
+        System.out.println(label + ": " + bytesPerCall + "(bytes per injection)");
+    }
+
+    private long allocatedBytesPerCall(com.sun.management.ThreadMXBean threadBean, Provider<? extends TestInterface> provider) {
+        for (int i = 0; i < WARMUP; i++) {
+            provider.get();
+        }
+        long threadId = Thread.currentThread().getId();
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED; i++) {
+            provider.get();
+        }
+        long end = threadBean.getThreadAllocatedBytes(threadId);
+        return (end - start) / MEASURED;
+    }
+
+    /**
+     * provides instances of the class loaded by {@link GroovyProvider} without any checks
+     */
+    private static final class DelegatingProvider implements Provider<TestInterface> {
+
+        private Provider<? extends TestInterface> delegate;
+
+        @Override
+        public TestInterface get() {
+            return delegate.get();
+        }
+    }
+}
@@ -37,7 +37,7 @@ public final class ProxyTest {
     }
 
     private void displayResults(String label, long executionTime) {
-        System.out.println(label + ": " + executionTime + "(ns) " + (executionTime / 100000) + "(ms)");
+        System.out.println(label + ": " + executionTime + "(ns) " + (executionTime / 1000000) + "(ms)");
     }
 
     private long executeClasses(int numberToExecute, MyClass[] classes) {
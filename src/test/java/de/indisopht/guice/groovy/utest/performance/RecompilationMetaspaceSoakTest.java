@@ -0,0 +1,133 @@
+package de.indisopht.guice.groovy.utest.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.inject.Binder;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+
+import de.indisopht.guice.groovy.GroovyGuice;
+import de.indisopht.guice.groovy.GroovyProvider;
+import de.indisopht.guice.groovy.utest.TestInterface;
+
+/**
+ * recompiles a Groovy class a hundred times and checks, that superseded
+ * classes are unloaded, so that the memory used for class metadata
+ * doesn't grow with the number of recompilations.
+ * <br/>
+ * It runs with the default JVM settings on purpose: Groovy references
+ * the metadata of loaded classes softly, so superseded classes are only
+ * unloaded, because that metadata is released explicitly.
+ */
+public final class RecompilationMetaspaceSoakTest {
+
+    private static final int WARMUP = 10;
+    private static final int RECOMPILATIONS = 100;
+    private static final long MAX_GROWTH = 4 * 1024 * 1024;
+    private static final long START = System.currentTimeMillis() - 24L * 60 * 60 * 1000;
+
+    @Test
+    public void testMetaspaceStaysFlat() throws IOException, InterruptedException {
+        MemoryPoolMXBean classMetadata = findClassMetadataPool();
+        if (classMetadata == null) {
+            System.out.println("class metadata can't be measured on this JVM");
+            return;
+        }
+        File classpath = File.createTempFile("groovy-guice", "soak");
+        classpath.delete();
+        classpath.mkdirs();
+        File source = new File(classpath, "SoakTestClass.groovy");
+        writeGeneration(source, 0);
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("SoakTestClass"){});
+            }
+        };
+        Module groovyGuiceModule = GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .enableRecompilation()
+            .build();
+        Injector injector = Guice.createInjector(groovyModule, groovyGuiceModule);
+        recompile(injector, source, 0, WARMUP, new ArrayList<WeakReference<Class<?>>>());
+        long baseline = usedAfterGc(classMetadata);
+        List<WeakReference<Class<?>>> superseded = new ArrayList<WeakReference<Class<?>>>();
+        recompile(injector, source, WARMUP + 1, WARMUP + RECOMPILATIONS, superseded);
+        long used = usedAfterGc(classMetadata);
+        // the latest generations may still be reachable through soft references,
+        // which the garbage collector clears the least recently used first
+        int loaded = 0;
+        for (WeakReference<Class<?>> currentClass : superseded.subList(0, RECOMPILATIONS / 2)) {
+            if (currentClass.get() != null) {
+                loaded++;
+            }
+        }
+        assertEquals("classes superseded long ago still loaded", 0, loaded);
+        assertTrue(classMetadata.getName() + " grew by " + (used - baseline) + " bytes", used - baseline < MAX_GROWTH);
+    }
+
+    /**
+     * @param classes   collects the class of every generation
+     */
+    private void recompile(Injector injector, File source, int first, int last, List<WeakReference<Class<?>>> classes) throws IOException, InterruptedException {
+        for (int i = first; i <= last; i++) {
+            writeGeneration(source, i);
+            // the provider checks its source for changes once per interval only
+            String value = injector.getInstance(TestInterface.class).getValue();
+            for (int j = 0; j < 500 && !value.equals("generation " + i); j++) {
+                Thread.sleep(10);
+                value = injector.getInstance(TestInterface.class).getValue();
+            }
+            assertEquals("generation " + i, value);
+            classes.add(new WeakReference<Class<?>>(injector.getInstance(TestInterface.class).getClass()));
+        }
+    }
+
+    private static void writeGeneration(File source, int generation) throws IOException {
+        FileWriter writer = new FileWriter(source);
+        try {
+            writer.write("import de.indisopht.guice.groovy.utest.TestInterface\n" +
+                         "class SoakTestClass implements TestInterface {\n" +
+                             "String getValue() { 'generation " + generation + "' }\n" +
+                         "}");
+        } finally {
+            writer.close();
+        }
+        // the content changes on every generation, but the length doesn't always
+        source.setLastModified(START + generation * 1000L);
+    }
+
+    private static long usedAfterGc(MemoryPoolMXBean pool) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return pool.getUsage().getUsed();
+    }
+
+    /**
+     * @return the pool holding class metadata, which is Metaspace on Java 8 and later and Perm Gen before
+     */
+    private static MemoryPoolMXBean findClassMetadataPool() {
+        for (MemoryPoolMXBean currentPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (currentPool.getName().equals("Metaspace") || currentPool.getName().endsWith("Perm Gen")) {
+                return currentPool;
+            }
+        }
+        return null;
+    }
+}
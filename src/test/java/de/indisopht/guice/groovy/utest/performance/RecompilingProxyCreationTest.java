@@ -0,0 +1,110 @@
+package de.indisopht.guice.groovy.utest.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+import de.indisopht.guice.groovy.internal.interceptors.RecompilationInterceptor;
+import de.indisopht.guice.groovy.internal.interceptors.Recompiler;
+import de.indisopht.guice.groovy.internal.interceptors.RecompilingProxyFactory;
+
+/**
+ * checks the proxies created by {@link RecompilingProxyFactory} and
+ * that their cached proxy classes don't keep the proxied classes alive
+ * after the factory is gone
+ */
+public final class RecompilingProxyCreationTest {
+
+    public static class CountingClass extends MyClassImpl {
+
+        static int instances = 0;
+
+        public CountingClass() {
+            instances++;
+        }
+    }
+
+    @Test
+    public void testProxyKinds() {
+        RecompilingProxyFactory proxyFactory = new RecompilingProxyFactory();
+        MyClass interfaceProxy = proxyFactory.createProxy(MyClass.class, createInterceptor());
+        assertTrue(Proxy.isProxyClass(interfaceProxy.getClass()));
+        interfaceProxy.doSomething();
+        int instances = CountingClass.instances;
+        CountingClass classProxy = proxyFactory.createProxy(CountingClass.class, createInterceptor());
+        assertEquals("constructor of proxied class called", instances, CountingClass.instances);
+        classProxy.doSomething();
+    }
+
+    @Test
+    public void testProxyTypeIsCached() {
+        RecompilingProxyFactory proxyFactory = new RecompilingProxyFactory();
+        assertSame(proxyFactory.createProxy(MyClassImpl.class, createInterceptor()).getClass(),
+                proxyFactory.createProxy(MyClassImpl.class, createInterceptor()).getClass());
+        assertSame(proxyFactory.createProxy(MyClass.class, createInterceptor()).getClass(),
+                proxyFactory.createProxy(MyClass.class, createInterceptor()).getClass());
+        assertSame(proxyFactory.createDispatchingProxy(MyClass.class, createInterceptor()).getClass(),
+                proxyFactory.createDispatchingProxy(MyClass.class, createInterceptor()).getClass());
+    }
+
+    @Test
+    public void testProxiedClassIsReleasedWithFactory() throws Exception {
+        WeakReference<Class<?>> proxiedClass = proxyInSeparateLoader();
+        for (int i = 0; i < 20 && proxiedClass.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull("proxied class is still referenced", proxiedClass.get());
+    }
+
+    /**
+     * proxies a copy of {@link MyClass} defined by a classloader of its own
+     */
+    private WeakReference<Class<?>> proxyInSeparateLoader() throws Exception {
+        Class<?> copy = new CopyingLoader().copy(MyClass.class);
+        RecompilingProxyFactory proxyFactory = new RecompilingProxyFactory();
+        Object proxy = proxyFactory.createProxy(copy, createInterceptor());
+        assertTrue(copy.isInstance(proxy));
+        return new WeakReference<Class<?>>(copy);
+    }
+
+    private RecompilationInterceptor createInterceptor() {
+        return new RecompilationInterceptor(new MyClassImpl(), new Recompiler() {
+            @Override
+            public Object recompile(Object delegate) {
+                return null;
+            }
+        });
+    }
+
+    private static final class CopyingLoader extends ClassLoader {
+
+        CopyingLoader() {
+            super(RecompilingProxyCreationTest.class.getClassLoader());
+        }
+
+        Class<?> copy(Class<?> type) throws IOException {
+            InputStream in = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class");
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+                byte[] bytecode = out.toByteArray();
+                return defineClass(type.getName(), bytecode, 0, bytecode.length);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package de.indisopht.guice.groovy.utest.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import net.sf.cglib.proxy.MethodProxy;
+
+import org.junit.Test;
+
+import de.indisopht.guice.groovy.internal.interceptors.RecompilationInterceptor;
+import de.indisopht.guice.groovy.internal.interceptors.Recompiler;
+import de.indisopht.guice.groovy.internal.interceptors.RecompilingProxyFactory;
+
+/**
+ * checks that calls through the proxies created by {@link RecompilingProxyFactory}
+ * reach the recompiled delegate after the swap and that dispatching proxies
+ * never call the intercepting path of the {@link RecompilationInterceptor}.
+ * Their speed is measured by the RecompilationInterceptorBenchmark.
+ */
+public final class RecompilingProxyDispatchTest {
+
+    private static final int NUMBER_TO_EXECUTE = 1000;
+
+    @Test
+    public void testDispatchingProxyCallsRecompiledDelegateDirectly() throws Exception {
+        CountingDelegate previous = new CountingDelegate();
+        CountingDelegate recompiled = new CountingDelegate();
+        CountingInterceptor interceptor = new CountingInterceptor(previous, recompiled);
+        MyClass dispatching = new RecompilingProxyFactory().createDispatchingProxy(MyClass.class, interceptor);
+        swap(dispatching, interceptor, recompiled);
+        int previousCalls = previous.calls;
+        execute(dispatching);
+        assertEquals(previousCalls, previous.calls);
+        assertEquals(NUMBER_TO_EXECUTE, recompiled.calls);
+        assertEquals("calls intercepted", 0, interceptor.interceptions);
+    }
+
+    @Test
+    public void testJdkProxyCallsRecompiledDelegate() throws Exception {
+        CountingDelegate previous = new CountingDelegate();
+        CountingDelegate recompiled = new CountingDelegate();
+        CountingInterceptor interceptor = new CountingInterceptor(previous, recompiled);
+        MyClass jdkProxy = new RecompilingProxyFactory().createProxy(MyClass.class, interceptor);
+        swap(jdkProxy, interceptor, recompiled);
+        int previousCalls = previous.calls;
+        int interceptions = interceptor.interceptions;
+        execute(jdkProxy);
+        assertEquals(previousCalls, previous.calls);
+        assertEquals(NUMBER_TO_EXECUTE, recompiled.calls);
+        assertEquals(interceptions + NUMBER_TO_EXECUTE, interceptor.interceptions);
+    }
+
+    /**
+     * signals a change and calls proxy, until the recompiled delegate has been swapped in
+     */
+    private void swap(MyClass proxy, CountingInterceptor interceptor, CountingDelegate recompiled) throws InterruptedException {
+        proxy.doSomething();
+        interceptor.sourceChanged(null);
+        for (int i = 0; i < 100 && recompiled.calls == 0; i++) {
+            proxy.doSomething();
+            Thread.sleep(10);
+        }
+        assertTrue("recompiled delegate not swapped in", recompiled.calls > 0);
+        recompiled.calls = 0;
+    }
+
+    private void execute(MyClass instance) {
+        for (int i = 0; i < NUMBER_TO_EXECUTE; i++) {
+            instance.doSomething();
+        }
+    }
+
+    public static class CountingDelegate implements MyClass {
+
+        volatile int calls = 0;
+
+        public void doSomething() {
+            calls++;
+        }
+    }
+
+    /**
+     * counts the calls taking the intercepting path, i.e. those of cglib
+     * proxies calling {@link #intercept} and JDK proxies calling {@link #invoke}
+     */
+    private static final class CountingInterceptor extends RecompilationInterceptor {
+
+        volatile int interceptions = 0;
+
+        CountingInterceptor(Object delegate, final Object recompiled) {
+            super(delegate, new Recompiler() {
+                @Override
+                public Object recompile(Object current) {
+                    return current == recompiled ? null : recompiled;
+                }
+            });
+        }
+
+        @Override
+        public Object intercept(Object object, Method method, Object[] params, MethodProxy methodProxy) throws Throwable {
+            interceptions++;
+            return super.intercept(object, method, params, methodProxy);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
+            interceptions++;
+            return super.invoke(proxy, method, params);
+        }
+    }
+}
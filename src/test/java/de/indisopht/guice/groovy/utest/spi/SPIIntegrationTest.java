@@ -17,17 +17,43 @@
 package de.indisopht.guice.groovy.utest.spi;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovySystem;
 import groovy.lang.Script;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URLClassLoader;
 import java.security.AccessControlException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.log4j.Logger;
 import org.junit.After;
@@ -36,15 +62,28 @@ import org.junit.Test;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
+import com.google.inject.CreationException;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Module;
+import com.google.inject.ProvisionException;
+import com.google.inject.Stage;
 import com.google.inject.name.Names;
+import com.google.inject.spi.Message;
 
 import de.indisopht.guice.groovy.GroovyGuice;
 import de.indisopht.guice.groovy.GroovyProvider;
+import de.indisopht.guice.groovy.internal.GroovyClassloaderFactory;
+import de.indisopht.guice.groovy.internal.GroovyGuiceClassLoader;
+import de.indisopht.guice.groovy.internal.GroovyPrecompiler;
+import de.indisopht.guice.groovy.internal.HotSwapAgent;
+import de.indisopht.guice.groovy.internal.StartupProfile;
+import de.indisopht.guice.groovy.internal.cache.PrecompiledIndex;
+import de.indisopht.guice.groovy.internal.metrics.JmxMetrics;
+import de.indisopht.guice.groovy.spi.CompilationMetrics;
 import de.indisopht.guice.groovy.utest.TestInterface;
+import de.indisopht.guice.groovy.utest.performance.MyClassImpl;
 
 public class SPIIntegrationTest {
 
@@ -108,6 +147,28 @@ public class SPIIntegrationTest {
         assertEquals("fromString", Guice.createInjector(groovyModule, groovyGuiceModule).getInstance(TestInterface.class).getValue());
     }
 
+    @Test
+    public void internClassesOfEqualScripts() {
+        Module groovyModule = new Module() {
+
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(Script.class).annotatedWith(Names.named("first")).toProvider(new GroovyProvider<Script>("'interned'"){});
+                binder.bind(Script.class).annotatedWith(Names.named("second")).toProvider(new GroovyProvider<Script>("'interned'"){});
+            }
+        };
+
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .build();
+
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        Script first=injector.getInstance(Key.get(Script.class, Names.named("first")));
+        Script second=injector.getInstance(Key.get(Script.class, Names.named("second")));
+        assertEquals("interned", second.run());
+        assertSame(first.getClass(), second.getClass());
+    }
+
     @Test
     public void loadScriptFromStringWithoutSecurity() {
         Module groovyGuiceModule= GroovyGuice
@@ -134,6 +195,60 @@ public class SPIIntegrationTest {
         assertEquals("groovy", Guice.createInjector(groovyModule, groovyGuiceModule).getInstance(Script.class).run());
     }
 
+    @Test
+    public void reuseScriptPerThread() throws Exception {
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .script("value = (binding.variables.containsKey('value') ? 'reused' : 'fresh'); value")
+            .reusePerThread()
+            .bind()
+            .build();
+        final Injector injector=Guice.createInjector(groovyGuiceModule);
+        Script script=injector.getInstance(Script.class);
+        assertEquals("fresh", script.run());
+        assertSame(script, injector.getInstance(Script.class));
+        assertEquals("fresh", script.run());
+        final Script[] otherThreadScript=new Script[1];
+        Thread otherThread=new Thread() {
+            @Override
+            public void run() {
+                otherThreadScript[0]=injector.getInstance(Script.class);
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+        assertNotNull(otherThreadScript[0]);
+        assertFalse(script == otherThreadScript[0]);
+    }
+
+    @Test
+    public void compileScriptOnFirstUse() {
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .bindScript("this isn't { Groovy")
+            .compileOnFirstUse()
+            .build();
+        Script script=Guice.createInjector(groovyGuiceModule).getInstance(Script.class);
+        try {
+            script.run();
+            fail("compiled on first call");
+        } catch (CreationException e) {
+            // expected
+        }
+        try {
+            Guice.createInjector(Stage.PRODUCTION, groovyGuiceModule).getInstance(Script.class);
+            fail("compiled eagerly in production");
+        } catch (ProvisionException e) {
+            // expected
+        }
+        groovyGuiceModule= GroovyGuice
+            .createModule()
+            .bindScript("'compiled lazily'")
+            .compileOnFirstUse()
+            .build();
+        assertEquals("compiled lazily", Guice.createInjector(groovyGuiceModule).getInstance(Script.class).run());
+    }
+
     @Test
     public void loadScriptFromFile() {
         Module groovyGuiceModule= GroovyGuice
@@ -179,7 +294,478 @@ public class SPIIntegrationTest {
     }
     
     @Test
-    public void testManualClassRecompilation() throws IOException {
+    public void loadFromFileWithBytecodeCache() throws IOException {
+        File cacheDirectory=File.createTempFile("groovy-guice", "cache");
+        cacheDirectory.delete();
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("TestClassWithGroovyDependency"){});
+            }
+        };
+        String classpath=new File(URLClassLoader.getSystemResource("TestClassWithGroovyDependency.groovy").getPath()).getParent().toString();
+        Module coldModule= GroovyGuice
+            .createModule()
+            .addClasspath(classpath)
+            .useBytecodeCache(cacheDirectory.getPath())
+            .build();
+        TestInterface cold=Guice.createInjector(groovyModule, coldModule).getInstance(TestInterface.class);
+        assertEquals("called successfully", cold.getValue());
+        assertFalse(isDefinedFromCache(cold.getClass()));
+        assertEquals(1, cacheDirectory.list().length);
+        Module warmModule= GroovyGuice
+            .createModule()
+            .addClasspath(classpath)
+            .useBytecodeCache(cacheDirectory.getPath())
+            .build();
+        TestInterface warm=Guice.createInjector(groovyModule, warmModule).getInstance(TestInterface.class);
+        assertEquals("called successfully", warm.getValue());
+        // the compiler is skipped, so the classes are defined from the cached bytecode
+        assertTrue(isDefinedFromCache(warm.getClass()));
+        assertEquals(1, cacheDirectory.list().length);
+    }
+
+    /**
+     * @return true, if the class has been defined by the loader for cached bytecode instead of by the compiler
+     */
+    private static boolean isDefinedFromCache(Class<?> loadedClass) {
+        return loadedClass.getClassLoader().getClass().getName().endsWith("$PreloadingLoader");
+    }
+
+    @Test
+    public void invalidateBytecodeCacheOnChangedDependency() throws IOException {
+        File classpath=File.createTempFile("groovy-guice", "dependency");
+        classpath.delete();
+        classpath.mkdirs();
+        File cacheDirectory=new File(classpath, "cache");
+        File dependency=new File(classpath, "CachedDependency.groovy");
+        writeSource(dependency, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class CachedDependency implements TestInterface {\n"+
+                        "String getValue() { 'dependency' }\n"+
+                    "}");
+        writeSource(new File(classpath, "CachedDependent.groovy"), "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class CachedDependent implements TestInterface {\n"+
+                        "String getValue() { new CachedDependency().value }\n"+
+                    "}");
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).annotatedWith(Names.named("dependency")).toProvider(new GroovyProvider<TestInterface>("CachedDependency"){});
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("CachedDependent"){});
+            }
+        };
+        TestInterface dependent=null;
+        for (int i = 0; i < 3; i++) {
+            if (i == 2) {
+                writeSource(dependency, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                            " class CachedDependency implements TestInterface {\n"+
+                                "String getValue() { 'changed dependency' }\n"+
+                            "}");
+            }
+            Module groovyGuiceModule= GroovyGuice
+                .createModule()
+                .addClasspath(classpath.getPath())
+                .useBytecodeCache(cacheDirectory.getPath())
+                .build();
+            Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+            // the dependency is loaded first, so that it isn't compiled together with the dependent class
+            injector.getInstance(Key.get(TestInterface.class, Names.named("dependency")));
+            dependent=injector.getInstance(TestInterface.class);
+            if (i == 1) {
+                assertEquals("cached", "PreloadingLoader", dependent.getClass().getClassLoader().getClass().getSimpleName());
+            }
+        }
+        assertFalse("PreloadingLoader".equals(dependent.getClass().getClassLoader().getClass().getSimpleName()));
+        assertEquals("changed dependency", dependent.getValue());
+    }
+
+    @Test
+    public void loadPrecompiledClassInProductionMode() throws IOException {
+        File root=File.createTempFile("groovy-guice", "precompiled");
+        root.delete();
+        File sources=new File(root, "sources");
+        File classes=new File(root, "classes");
+        sources.mkdirs();
+        File source=new File(sources, "PrecompiledTestClass.groovy");
+        FileWriter writer=new FileWriter(source);
+        writer.write("import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class PrecompiledTestClass implements TestInterface {\n"+
+                        "String getValue() {\n"+
+                           "'precompiled'\n"+
+                        "}\n"+
+                    "}");
+        writer.close();
+        PrecompiledIndex.write(classes, new GroovyPrecompiler(Arrays.asList(sources)).compile());
+        source.delete();
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("PrecompiledTestClass"){});
+            }
+        };
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .addClasspath(classes.getPath())
+            .enableProductionMode()
+            .build();
+        assertEquals("precompiled", Guice.createInjector(groovyModule, groovyGuiceModule).getInstance(TestInterface.class).getValue());
+    }
+
+    /**
+     * BuildPrecompiledTestClass.groovy in src/test/groovy isn't on the classpath,
+     * it's precompiled into the test classes by the precompile-test profile
+     */
+    @Test
+    public void loadClassPrecompiledByBuild() throws ClassNotFoundException {
+        assertNotNull("Groovy test fixtures haven't been precompiled", getClass().getClassLoader().getResource(PrecompiledIndex.INDEX_LOCATION));
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("BuildPrecompiledTestClass"){});
+            }
+        };
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .enableProductionMode()
+            .build();
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        TestInterface precompiled=injector.getInstance(TestInterface.class);
+        assertEquals("precompiled by build", precompiled.getValue());
+        GroovyGuiceClassLoader groovyLoader=injector.getInstance(GroovyClassloaderFactory.class).createGroovyClassLoader();
+        assertSame(precompiled.getClass(), groovyLoader.loadClass("BuildPrecompiledTestClass"));
+        assertNull(groovyLoader.getPrecompiledIndex().getSourceName("java.lang.String"));
+    }
+
+    @Test
+    public void testEagerCompilation() {
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("TestClassWithGroovyDependency"){});
+            }
+        };
+        Module groovyGuiceModule= GroovyGuice.createWithGroovyModules("TestBasicSourceModule")
+            .addClasspath(new File(URLClassLoader.getSystemResource("TestBasicSourceModule.groovy").getPath()).getParent().toString())
+            .bindScript("TestScript")
+            .disableRecompilation()
+            .compileEagerly(groovyModule)
+            .build();
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        assertEquals("called successfully", injector.getInstance(TestInterface.class).getValue());
+        assertEquals("fromFile", injector.getInstance(Script.class).run());
+        assertEquals("Yes, it works", injector.getInstance(Key.<String>get(String.class, Names.named("testScript"))));
+    }
+    
+    @Test
+    public void testEagerCompilationReportsErrorsInOrder() {
+        try {
+            GroovyGuice.createModule()
+                .bindScript("class First {", Names.named("first"))
+                .bindScript("class Second {", Names.named("second"))
+                .compileEagerly()
+                .build();
+            fail("compilation errors expected");
+        } catch (CreationException e) {
+            Iterator<Message> messages=e.getErrorMessages().iterator();
+            assertTrue(messages.next().getMessage().contains("class First {"));
+            assertTrue(messages.next().getMessage().contains("class Second {"));
+            assertFalse(messages.hasNext());
+        }
+    }
+    
+    @Test
+    public void testClassIsReusedWhileSourceIsUnchanged() {
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("TestClass"){});
+                binder.bind(TestInterface.class).annotatedWith(Names.named("inline")).toProvider(new GroovyProvider<TestInterface>(dynamicSource){});
+            }
+        };
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .addClasspath(new File(URLClassLoader.getSystemResource("TestClass.groovy").getPath()).getParent().toString())
+            .enableRecompilation()
+            .build();
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        assertSame(injector.getInstance(TestInterface.class).getClass(), injector.getInstance(TestInterface.class).getClass());
+        Key<TestInterface> inlineKey=Key.get(TestInterface.class, Names.named("inline"));
+        assertSame(injector.getInstance(inlineKey).getClass(), injector.getInstance(inlineKey).getClass());
+    }
+    
+    @Test
+    public void testRewrittenSourceWithSameContentIsNotRecompiled() throws Exception {
+        File classpath=File.createTempFile("groovy-guice", "touched");
+        classpath.delete();
+        classpath.mkdirs();
+        File f=new File(classpath, "TouchedTestClass.groovy");
+        String source="import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                      " class TouchedTestClass implements TestInterface {\n"+
+                          "String getValue() {\n"+
+                             "'fromFile'\n"+
+                          "}\n"+
+                      "}";
+        FileWriter writer=new FileWriter(f);
+        writer.write(source);
+        writer.close();
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("TouchedTestClass"){});
+            }
+        };
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .enableRecompilation()
+            .build();
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        Class<?> compiledClass=injector.getInstance(TestInterface.class).getClass();
+        writer=new FileWriter(f);
+        writer.write(source);
+        writer.close();
+        f.setLastModified(f.lastModified()+10000l);
+        // lets the provider check for changes at least once
+        TimeUnit.MILLISECONDS.sleep(300l);
+        assertSame(compiledClass, injector.getInstance(TestInterface.class).getClass());
+        writer=new FileWriter(f);
+        writer.write(source.replace("'fromFile'", "'again fromFile'"));
+        writer.close();
+        assertEquals("again fromFile", awaitChangedValue(injector, Key.get(TestInterface.class), "fromFile"));
+    }
+    
+    @Test
+    public void testRecompilationOfDependents() throws Exception {
+        File classpath=File.createTempFile("groovy-guice", "dependencies");
+        classpath.delete();
+        classpath.mkdirs();
+        writeSource(new File(classpath, "SharedDependency.groovy"), "class SharedDependency { static String getValue() { 'shared' } }");
+        writeSource(new File(classpath, "DependentTestClass.groovy"), "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class DependentTestClass implements TestInterface {\n"+
+                        "String getValue() {\n"+
+                           "SharedDependency.getValue()\n"+
+                        "}\n"+
+                    "}");
+        writeSource(new File(classpath, "IndependentTestClass.groovy"), "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class IndependentTestClass implements TestInterface {\n"+
+                        "String getValue() {\n"+
+                           "'independent'\n"+
+                        "}\n"+
+                    "}");
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("DependentTestClass"){});
+                binder.bind(TestInterface.class).annotatedWith(Names.named("independent")).toProvider(new GroovyProvider<TestInterface>("IndependentTestClass"){});
+            }
+        };
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .enableRecompilation()
+            .build();
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        Key<TestInterface> independentKey=Key.get(TestInterface.class, Names.named("independent"));
+        assertEquals("shared", injector.getInstance(TestInterface.class).getValue());
+        Class<?> independentClass=injector.getInstance(independentKey).getClass();
+        writeSource(new File(classpath, "SharedDependency.groovy"), "class SharedDependency { static String getValue() { 'changed shared' } }");
+        assertEquals("changed shared", awaitChangedValue(injector, Key.get(TestInterface.class), "shared"));
+        assertSame(independentClass, injector.getInstance(independentKey).getClass());
+    }
+    
+    @Test
+    public void testJmxMetricsOfRecompiledBinding() throws Exception {
+        File classpath=File.createTempFile("groovy-guice", "metrics");
+        classpath.delete();
+        classpath.mkdirs();
+        File source=new File(classpath, "MeasuredTestClass.groovy");
+        writeSource(source, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class MeasuredTestClass implements TestInterface {\n"+
+                        "String getValue() { 'measured' }\n"+
+                    "}");
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("MeasuredTestClass"){});
+            }
+        };
+        Module groovyGuiceModule= GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .enableRecompilation()
+            .enableJmxMetrics()
+            .build();
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        assertEquals("measured", injector.getInstance(TestInterface.class).getValue());
+        writeSource(source, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class MeasuredTestClass implements TestInterface {\n"+
+                        "String getValue() { 'changed' }\n"+
+                    "}");
+        assertEquals("changed", awaitChangedValue(injector, Key.get(TestInterface.class), "measured"));
+        MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names=server.queryNames(new ObjectName(JmxMetrics.DOMAIN + ":type=BindingMetrics,name=" + ObjectName.quote("MeasuredTestClass") + ",*"), null);
+        assertEquals(1, names.size());
+        ObjectName name=names.iterator().next();
+        assertEquals(2L, server.getAttribute(name, "CompileCount"));
+        assertEquals(1L, server.getAttribute(name, "RecompileTriggerCount"));
+        assertEquals(1, server.getAttribute(name, "Generation"));
+        assertEquals(0L, server.getAttribute(name, "FailureCount"));
+        GroovyGuice.dispose(injector);
+        assertFalse(server.isRegistered(name));
+    }
+    
+    @Test
+    public void testCompileStatically() throws Exception {
+        File classpath=File.createTempFile("groovy-guice", "static");
+        classpath.delete();
+        classpath.mkdirs();
+        writeSource(new File(classpath, "StaticTestClass.groovy"), "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class StaticTestClass implements TestInterface {\n"+
+                        "String getValue() { 'static'.noSuchMethod() }\n"+
+                    "}");
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("StaticTestClass"){});
+            }
+        };
+        Module dynamicModule= GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .build();
+        assertNotNull(Guice.createInjector(groovyModule, dynamicModule).getInstance(TestInterface.class));
+        Module staticModule= GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .compileStatically("StaticTestClass")
+            .build();
+        try {
+            Guice.createInjector(groovyModule, staticModule).getInstance(TestInterface.class);
+            fail("type checked");
+        } catch (ProvisionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("noSuchMethod"));
+        }
+    }
+
+    @Test
+    public void testStartupProfile() throws Exception {
+        File classpath=File.createTempFile("groovy-guice", "profile");
+        classpath.delete();
+        classpath.mkdirs();
+        writeSource(new File(classpath, "ProfiledTestClass.groovy"), "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class ProfiledTestClass implements TestInterface {\n"+
+                        "String getValue() { new java.util.concurrent.ConcurrentSkipListSet(['profiled']).first() }\n"+
+                    "}");
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("ProfiledTestClass"){});
+            }
+        };
+        File profileFile=new File(classpath, "startup.profile");
+        StartupProfile startupProfile=null;
+        for (int i = 0; i < 2; i++) {
+            // opening the profile again closes and writes the profile of the previous setup
+            Module groovyGuiceModule= GroovyGuice
+                .createModule()
+                .addClasspath(classpath.getPath())
+                .useStartupProfile(profileFile.getPath())
+                .build();
+            Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+            assertEquals("profiled", injector.getInstance(TestInterface.class).getValue());
+            startupProfile=injector.getInstance(GroovyClassloaderFactory.class).getStartupProfile();
+            assertTrue(profileFile.isFile()==(i>0));
+        }
+        startupProfile.close();
+        profileFile.delete();
+        startupProfile.close();
+        assertFalse("closed profile written again", profileFile.exists());
+        startupProfile.write();
+        Properties profile=new Properties();
+        FileInputStream in=new FileInputStream(profileFile);
+        try {
+            profile.load(in);
+        } finally {
+            in.close();
+        }
+        assertEquals("ProfiledTestClass", profile.getProperty("source.0"));
+        assertTrue(profile.containsValue("java.util.concurrent.ConcurrentSkipListSet"));
+    }
+    
+    @Test
+    public void testStartupProfileReplay() throws Exception {
+        File classpath=File.createTempFile("groovy-guice", "replay");
+        classpath.delete();
+        classpath.mkdirs();
+        writeSource(new File(classpath, "ReplayedTestClass.groovy"), "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class ReplayedTestClass implements TestInterface {\n"+
+                        "String getValue() { 'replayed' }\n"+
+                    "}");
+        File profileFile=new File(classpath, "startup.profile");
+        Properties profile=new Properties();
+        profile.setProperty("groovy", GroovySystem.getVersion());
+        profile.setProperty("source.0", "ReplayedTestClass");
+        profile.setProperty("class.0", MyClassImpl.class.getName());
+        FileOutputStream out=new FileOutputStream(profileFile);
+        try {
+            profile.store(out, null);
+        } finally {
+            out.close();
+        }
+        Module groovyModule = new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("ReplayedTestClass"){});
+            }
+        };
+        // the parent of the bridged classloader sees, which classes are preloaded
+        final Set<String> requestedClasses=Collections.synchronizedSet(new HashSet<String>());
+        ClassLoader recordingLoader=new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                requestedClasses.add(name);
+                return super.loadClass(name, resolve);
+            }
+        };
+        ExecutorService executor=Executors.newFixedThreadPool(2);
+        ClassLoader contextLoader=Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(recordingLoader);
+        Module groovyGuiceModule;
+        try {
+            groovyGuiceModule= GroovyGuice
+                .createModule()
+                .addClasspath(classpath.getPath())
+                .useStartupProfile(profileFile.getPath())
+                .useCompilationExecutor(executor)
+                .build();
+        } finally {
+            Thread.currentThread().setContextClassLoader(contextLoader);
+        }
+        executor.shutdown();
+        assertTrue("replay finished", executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertTrue(requestedClasses.toString(), requestedClasses.contains(MyClassImpl.class.getName()));
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        GroovyClassloaderFactory classloaderFactory=injector.getInstance(GroovyClassloaderFactory.class);
+        boolean compiled=false;
+        for (Class<?> currentClass : classloaderFactory.createGroovyClassLoader().getLoadedClasses()) {
+            compiled|=currentClass.getName().equals("ReplayedTestClass");
+        }
+        assertTrue("compiled before first use", compiled);
+        assertEquals("replayed", injector.getInstance(TestInterface.class).getValue());
+        classloaderFactory.getStartupProfile().close();
+    }
+
+    private static void writeSource(File file, String source) throws IOException {
+        FileWriter writer=new FileWriter(file);
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+    }
+    
+    @Test
+    public void testManualClassRecompilation() throws Exception {
         File f=null;
         FileWriter writer=null;
         Module groovyModule = new Module() {
@@ -207,7 +793,7 @@ public class SPIIntegrationTest {
                             "}\n"+
                         "}");
             writer.close();
-            assertEquals("again fromFile", injector.getInstance(TestInterface.class).getValue());
+            assertEquals("again fromFile", awaitChangedValue(injector, Key.get(TestInterface.class), "fromFile"));
         } finally {
             if (f!=null) {
                 f.delete();
@@ -223,7 +809,218 @@ public class SPIIntegrationTest {
             }
         }
     }
+
+    /**
+     * injects, until the value changes, because a provider checks its
+     * source for changes once per interval only
+     */
+    private static String awaitChangedValue(Injector injector, Key<TestInterface> key, String previousValue) throws InterruptedException {
+        String result=injector.getInstance(key).getValue();
+        for (int i=0; i<100 && previousValue.equals(result); i++) {
+            TimeUnit.MILLISECONDS.sleep(50l);
+            result=injector.getInstance(key).getValue();
+        }
+        return result;
+    }
     
+    @Test
+    public void testRecompilationOfWatchedSource() throws IOException, InterruptedException {
+        File classpath=File.createTempFile("groovy-guice", "watched");
+        classpath.delete();
+        classpath.mkdirs();
+        File f=new File(classpath, "WatchedTestClass.groovy");
+        FileWriter writer=new FileWriter(f);
+        writer.write("import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class WatchedTestClass implements TestInterface {\n"+
+                        "String getValue() {\n"+
+                           "'fromFile'\n"+
+                        "}\n"+
+                    "}");
+        writer.close();
+        Module groovyModule = new AbstractModule() {
+            @Override
+            public void configure() {
+                bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("WatchedTestClass", true){});
+            }
+        };
+        Module groovyGuiceModule = GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .enableSourceWatching(50, TimeUnit.MILLISECONDS)
+            .build();
+        Set<Thread> previousWatchers=findSourceWatcherThreads();
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        TestInterface ti=injector.getInstance(TestInterface.class);
+        Set<Thread> watchers=findSourceWatcherThreads();
+        watchers.removeAll(previousWatchers);
+        assertEquals(1, watchers.size());
+        assertEquals("fromFile", ti.getValue());
+        assertEquals("fromFile", ti.getValue());
+        writer=new FileWriter(f);
+        writer.write("import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class WatchedTestClass implements TestInterface {\n"+
+                        "String getValue() {\n"+
+                           "'again fromFile'\n"+
+                        "}\n"+
+                    "}");
+        writer.close();
+        for (int i=0; i<100 && "fromFile".equals(ti.getValue()); i++) {
+            TimeUnit.MILLISECONDS.sleep(50l);
+        }
+        assertEquals("again fromFile", ti.getValue());
+        GroovyGuice.dispose(injector);
+        assertFalse("source watcher still running", watchers.iterator().next().isAlive());
+    }
+
+    private static Set<Thread> findSourceWatcherThreads() {
+        Set<Thread> result=new HashSet<Thread>();
+        for (Thread currentThread : Thread.getAllStackTraces().keySet()) {
+            if (currentThread.getName().equals("groovy-guice source watcher") && currentThread.isAlive()) {
+                result.add(currentThread);
+            }
+        }
+        return result;
+    }
+    
+    @Test
+    public void recompileProxyAfterChangeNoticedByAnotherInjection() throws Exception {
+        File classpath=File.createTempFile("groovy-guice", "proxy");
+        classpath.delete();
+        classpath.mkdirs();
+        File source=new File(classpath, "ProxiedTestClass.groovy");
+        writeSource(source, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class ProxiedTestClass implements TestInterface {\n"+
+                        "String getValue() { 'before' }\n"+
+                    "}");
+        Module groovyModule = new AbstractModule() {
+            @Override
+            public void configure() {
+                bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("ProxiedTestClass", 100, TimeUnit.MILLISECONDS){});
+            }
+        };
+        Module groovyGuiceModule = GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .enableRecompilation()
+            .build();
+        Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+        TestInterface proxy=injector.getInstance(TestInterface.class);
+        assertEquals("before", proxy.getValue());
+        writeSource(source, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class ProxiedTestClass implements TestInterface {\n"+
+                        "String getValue() { 'after' }\n"+
+                    "}");
+        source.setLastModified(System.currentTimeMillis() + 2000);
+        // the unproxied instance notices the change first
+        assertEquals("after", awaitChangedValue(injector, Key.get(TestInterface.class), "before"));
+        TimeUnit.MILLISECONDS.sleep(200l);
+        for (int i=0; i<100 && "before".equals(proxy.getValue()); i++) {
+            TimeUnit.MILLISECONDS.sleep(50l);
+        }
+        assertEquals("after", proxy.getValue());
+    }
+
+    @Test
+    public void testHotSwapAfterCompilationFailure() throws Exception {
+        File classpath=File.createTempFile("groovy-guice", "hotswap");
+        classpath.delete();
+        classpath.mkdirs();
+        File source=new File(classpath, "HotSwapTestClass.groovy");
+        writeSource(source, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                    " class HotSwapTestClass implements TestInterface {\n"+
+                        "String getValue() { 'before' }\n"+
+                    "}");
+        final AtomicInteger redefinitions=new AtomicInteger();
+        final AtomicBoolean rejecting=new AtomicBoolean();
+        // records redefinitions instead of redefining, as the tests don't run with the agent
+        Instrumentation instrumentation=(Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Instrumentation.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("isRedefineClassesSupported")) {
+                    return Boolean.TRUE;
+                }
+                if (method.getName().equals("redefineClasses")) {
+                    if (rejecting.get()) {
+                        throw new UnsupportedOperationException("class redefinition failed: attempted to add a method");
+                    }
+                    redefinitions.incrementAndGet();
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final AtomicInteger failures=new AtomicInteger();
+        CompilationMetrics metrics=new CompilationMetrics() {
+            public void compiled(String binding, long nanos) {
+            }
+            public void compilationFailed(String binding, long nanos) {
+                failures.incrementAndGet();
+            }
+            public void recompileTriggered(String binding) {
+            }
+            public void swapped(String binding, int generation) {
+            }
+        };
+        Module groovyModule = new AbstractModule() {
+            @Override
+            public void configure() {
+                bind(TestInterface.class).toProvider(new GroovyProvider<TestInterface>("HotSwapTestClass", true){});
+            }
+        };
+        Module groovyGuiceModule = GroovyGuice
+            .createModule()
+            .addClasspath(classpath.getPath())
+            .enableSourceWatching(50, TimeUnit.MILLISECONDS)
+            .enableHotSwap()
+            .useMetrics(metrics)
+            .build();
+        HotSwapAgent.agentmain(null, instrumentation);
+        try {
+            Injector injector=Guice.createInjector(groovyModule, groovyGuiceModule);
+            TestInterface ti=injector.getInstance(TestInterface.class);
+            assertEquals("before", ti.getValue());
+            Class<?> swappedClass=ti.getClass();
+            writeSource(source, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                        " class HotSwapTestClass implements TestInterface {\n"+
+                            "String getValue() { 'broken' \n"+
+                        "}");
+            source.setLastModified(System.currentTimeMillis() + 2000);
+            for (int i=0; i<100 && failures.get() == 0; i++) {
+                TimeUnit.MILLISECONDS.sleep(50l);
+            }
+            assertEquals(1, failures.get());
+            assertSame(swappedClass, injector.getInstance(TestInterface.class).getClass());
+            // the source is redefined again, after it has been fixed
+            writeSource(source, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                        " class HotSwapTestClass implements TestInterface {\n"+
+                            "String getValue() { 'fixed' }\n"+
+                        "}");
+            source.setLastModified(System.currentTimeMillis() + 4000);
+            for (int i=0; i<100 && redefinitions.get() == 0; i++) {
+                TimeUnit.MILLISECONDS.sleep(50l);
+            }
+            assertEquals(1, redefinitions.get());
+            assertSame(swappedClass, injector.getInstance(TestInterface.class).getClass());
+            // a change the JVM rejects is loaded as a new class
+            rejecting.set(true);
+            writeSource(source, "import de.indisopht.guice.groovy.utest.TestInterface\n"+
+                        " class HotSwapTestClass implements TestInterface {\n"+
+                            "String getValue() { 'rejected' }\n"+
+                            "String getOther() { 'added' }\n"+
+                        "}");
+            source.setLastModified(System.currentTimeMillis() + 6000);
+            TestInterface rejected=injector.getInstance(TestInterface.class);
+            for (int i=0; i<100 && rejected.getClass() == swappedClass; i++) {
+                TimeUnit.MILLISECONDS.sleep(50l);
+                rejected=injector.getInstance(TestInterface.class);
+            }
+            assertEquals("rejected", rejected.getValue());
+            assertFalse(swappedClass == rejected.getClass());
+            assertEquals(1, redefinitions.get());
+        } finally {
+            HotSwapAgent.agentmain(null, null);
+        }
+    }
+
     @Test
     public void testDynamicClassRecompilation() throws IOException {
         File f=null;
@@ -260,6 +1057,10 @@ public class SPIIntegrationTest {
             assertEquals("fromFile", ti.getValue());
             try {
                 TimeUnit.SECONDS.sleep(5l);
+                // recompilation is triggered by the first call and done in background
+                for (int i=0; i<100 && "fromFile".equals(ti.getValue()); i++) {
+                    TimeUnit.MILLISECONDS.sleep(50l);
+                }
             } catch (InterruptedException e) {
             }
             assertEquals("again fromFile", ti.getValue());
@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2008 Stefan Maassen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import de.indisopht.guice.groovy.utest.TestInterface
+
+class ComputingTestClass implements TestInterface {
+
+    String getValue() {
+        long sum = 0
+        for (int i = 0; i < 1000; i++) {
+            sum += i * i % 7
+        }
+        return String.valueOf(sum)
+    }
+}